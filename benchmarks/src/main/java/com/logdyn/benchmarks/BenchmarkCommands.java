@@ -0,0 +1,84 @@
+package com.logdyn.benchmarks;
+
+import com.logdyn.Command;
+import com.logdyn.Executor;
+import com.logdyn.UndoableCommand;
+import com.logdyn.UndoableExecutor;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Commands and executors shared by the benchmarks
+ */
+public class BenchmarkCommands {
+
+    public static class NoopCommand implements UndoableCommand {
+
+        @Override
+        public String getName() {
+            return "Noop";
+        }
+    }
+
+    public static class NoopExecutor implements UndoableExecutor<UndoableCommand> {
+
+        @Override
+        public void execute(UndoableCommand command) {
+            //NOOP
+        }
+
+        @Override
+        public void unexecute(UndoableCommand command) {
+            //NOOP
+        }
+    }
+
+    public static class FillerExecutor<C extends Command> implements Executor<C> {
+
+        @Override
+        public void execute(C command) {
+            //NOOP
+        }
+    }
+
+    //a deep hierarchy, the executor is subscribed to the root and commands are published as the leaf
+    public static class Level0Command implements Command {
+
+        @Override
+        public String getName() {
+            return this.getClass().getSimpleName();
+        }
+    }
+
+    public static class Level1Command extends Level0Command {}
+
+    public static class Level2Command extends Level1Command {}
+
+    public static class Level3Command extends Level2Command {}
+
+    public static class Level4Command extends Level3Command {}
+
+    public static class Level5Command extends Level4Command {}
+
+    public static class Level6Command extends Level5Command {}
+
+    public static class Level7Command extends Level6Command {}
+
+    /**
+     * Creates distinct, unrelated, command classes to fill a registry. Each class is a proxy defined in its own class loader
+     * @param count The number of classes to create
+     * @return the created classes
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Class<Command>> fillerCommandClasses(final int count) {
+        final List<Class<Command>> classes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final ClassLoader loader = new ClassLoader(BenchmarkCommands.class.getClassLoader()) {};
+            final Object proxy = Proxy.newProxyInstance(loader, new Class<?>[]{Command.class}, (p, method, args) -> "Filler");
+            classes.add((Class<Command>) proxy.getClass());
+        }
+        return classes;
+    }
+}
@@ -0,0 +1,72 @@
+package com.logdyn.benchmarks;
+
+import com.logdyn.CommandDelegator;
+import com.logdyn.ExecutionException;
+import com.logdyn.ExecutionRecord;
+import com.logdyn.ExecutionRecordQuery;
+import com.logdyn.UndoableCommand;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+import static com.logdyn.benchmarks.BenchmarkCommands.*;
+
+/**
+ * Querying the execution records of a delegator with a full record log
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutionRecordBenchmark {
+
+    @Param({"1024", "65536"})
+    public int retention;
+
+    @Param({"10", "1000"})
+    public int count;
+
+    private CommandDelegator delegator;
+    private final ExecutionRecordQuery undoQuery = ExecutionRecordQuery.all().withOperation(ExecutionRecord.Operation.UNDO);
+
+    @Setup
+    public void setup() throws ExecutionException {
+        delegator = new CommandDelegator();
+        delegator.subscribe(new NoopExecutor(), UndoableCommand.class);
+        delegator.setExecutionRecordRetention(retention);
+        for (int i = 0; i < retention; i++) {
+            //one record in a hundred is an undo
+            if (i % 100 == 99) {
+                delegator.undo();
+                delegator.redo();
+                i++;
+            } else {
+                delegator.publish(new NoopCommand());
+            }
+        }
+    }
+
+    @Benchmark
+    public Optional<ExecutionRecord> latestRecord() {
+        return delegator.getLatestExecutionRecord();
+    }
+
+    @Benchmark
+    public SortedSet<ExecutionRecord> latestRecords() {
+        return delegator.getExecutionRecords(count);
+    }
+
+    @Benchmark
+    public SortedSet<ExecutionRecord> allRecords() {
+        return delegator.getExecutionRecords();
+    }
+
+    @Benchmark
+    public long queryUndoRecords() {
+        return delegator.queryExecutionRecords(undoQuery).limit(count).count();
+    }
+}
@@ -0,0 +1,62 @@
+package com.logdyn.benchmarks;
+
+import com.logdyn.Command;
+import com.logdyn.CommandDelegator;
+import com.logdyn.ExecutionException;
+import com.logdyn.Executor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.logdyn.benchmarks.BenchmarkCommands.*;
+
+/**
+ * Resolving the executor of a command deep in a class hierarchy with many executors subscribed, and changing the subscriptions
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutorLookupBenchmark {
+
+    @Param({"1", "100", "500"})
+    public int executorCount;
+
+    private CommandDelegator delegator;
+    private Command command;
+    private Executor<Command> executor;
+    private Class<Command> commandClass;
+
+    @Setup
+    public void setup() {
+        delegator = new CommandDelegator();
+        for (final Class<Command> filler : fillerCommandClasses(executorCount - 1)) {
+            delegator.subscribe(new FillerExecutor<>(), filler);
+        }
+        delegator.subscribe(new FillerExecutor<>(), Level0Command.class);
+        command = new Level7Command();
+        executor = new FillerExecutor<>();
+        commandClass = fillerCommandClasses(1).get(0);
+    }
+
+    @Benchmark
+    public void publishDeepHierarchy() throws ExecutionException {
+        delegator.publish(command, false);
+    }
+
+    @Benchmark
+    public boolean subscribeUnsubscribe() {
+        delegator.subscribe(executor, commandClass);
+        return delegator.unsubscribe(executor);
+    }
+
+    @Benchmark
+    public void publishAfterSubscribe() throws ExecutionException {
+        //a change to the subscriptions invalidates any cached lookups
+        delegator.subscribe(executor, commandClass);
+        delegator.unsubscribe(executor);
+        delegator.publish(command, false);
+    }
+}
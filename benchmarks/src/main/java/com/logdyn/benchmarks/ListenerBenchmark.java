@@ -0,0 +1,59 @@
+package com.logdyn.benchmarks;
+
+import com.logdyn.AsyncListenerDispatcher;
+import com.logdyn.CommandDelegator;
+import com.logdyn.ExecutionException;
+import com.logdyn.UndoableCommand;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.logdyn.benchmarks.BenchmarkCommands.*;
+
+/**
+ * Publishing with many listeners registered, delivering events synchronously or asynchronously
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int listenerCount;
+
+    @Param({"false", "true"})
+    public boolean async;
+
+    private CommandDelegator delegator;
+    private ExecutorService dispatchThread;
+
+    @Setup
+    public void setup() {
+        delegator = new CommandDelegator();
+        delegator.subscribe(new NoopExecutor(), UndoableCommand.class);
+        for (int i = 0; i < listenerCount; i++) {
+            delegator.addListener(event -> {});
+        }
+        if (async) {
+            dispatchThread = Executors.newSingleThreadExecutor();
+            delegator.setListenerDispatcher(new AsyncListenerDispatcher(dispatchThread, 4096));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (dispatchThread != null) {
+            dispatchThread.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void publish() throws ExecutionException {
+        delegator.publish(new NoopCommand(), false);
+    }
+}
@@ -0,0 +1,72 @@
+package com.logdyn.benchmarks;
+
+import com.logdyn.CommandDelegator;
+import com.logdyn.ExecutionException;
+import com.logdyn.HistoryPolicy;
+import com.logdyn.UndoableCommand;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.logdyn.benchmarks.BenchmarkCommands.*;
+
+/**
+ * Publishing recorded commands, from one thread and from several threads sharing or not sharing a delegator
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedDelegator {
+
+        @Param({"100", "10000"})
+        public int historyDepth;
+
+        public CommandDelegator delegator;
+
+        @Setup
+        public void setup() {
+            delegator = new CommandDelegator();
+            delegator.subscribe(new NoopExecutor(), UndoableCommand.class);
+            delegator.setHistoryPolicy(HistoryPolicy.maxDepth(historyDepth));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadDelegator {
+
+        @Param({"100", "10000"})
+        public int historyDepth;
+
+        public CommandDelegator delegator;
+
+        @Setup
+        public void setup() {
+            delegator = new CommandDelegator();
+            delegator.subscribe(new NoopExecutor(), UndoableCommand.class);
+            delegator.setHistoryPolicy(HistoryPolicy.maxDepth(historyDepth));
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void publish(final SharedDelegator state) throws ExecutionException {
+        state.delegator.publish(new NoopCommand());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void publishContended(final SharedDelegator state) throws ExecutionException {
+        state.delegator.publish(new NoopCommand());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void publishIndependent(final ThreadDelegator state) throws ExecutionException {
+        state.delegator.publish(new NoopCommand());
+    }
+}
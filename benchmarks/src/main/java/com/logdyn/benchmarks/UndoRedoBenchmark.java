@@ -0,0 +1,51 @@
+package com.logdyn.benchmarks;
+
+import com.logdyn.CommandDelegator;
+import com.logdyn.ExecutionException;
+import com.logdyn.UndoableCommand;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.logdyn.benchmarks.BenchmarkCommands.*;
+
+/**
+ * Undoing and redoing the whole of a history, and querying it
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UndoRedoBenchmark {
+
+    @Param({"100", "10000"})
+    public int historyDepth;
+
+    private CommandDelegator delegator;
+
+    @Setup
+    public void setup() throws ExecutionException {
+        delegator = new CommandDelegator();
+        delegator.subscribe(new NoopExecutor(), UndoableCommand.class);
+        for (int i = 0; i < historyDepth; i++) {
+            delegator.publish(new NoopCommand());
+        }
+    }
+
+    @Benchmark
+    public void undoRedoAll() throws ExecutionException {
+        delegator.undo(historyDepth);
+        delegator.redo(historyDepth);
+    }
+
+    @Benchmark
+    public void historyQueries(final Blackhole blackhole) {
+        blackhole.consume(delegator.canUndo());
+        blackhole.consume(delegator.canRedo());
+        blackhole.consume(delegator.getUndoName());
+        blackhole.consume(delegator.getUndoNames(10));
+    }
+}
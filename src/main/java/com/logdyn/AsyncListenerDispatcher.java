@@ -0,0 +1,112 @@
+package com.logdyn;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers events to listeners on an {@link java.util.concurrent.Executor}, so listeners do not add to the time a delegator is locked.
+ * <p>
+ * Events are held in a bounded queue and delivered in batches by a single task at a time, so each listener receives events in the
+ * order they occurred. If the queue is full the new event is dropped and counted, see {@link #getDroppedCount()}, rather than
+ * blocking the delegator. As every event carries the latest {@link ExecutionRecord}, a listener can resynchronise from
+ * {@link CommandDelegator#getLatestExecutionRecord()} after a drop. Listeners are read when an event is delivered, not when it occurred.
+ * </p>
+ */
+public class AsyncListenerDispatcher implements ListenerDispatcher {
+
+    private final java.util.concurrent.Executor executor;
+    private final BlockingQueue<PendingEvent> queue;
+    private final int batchSize;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param executor The executor events are delivered on
+     * @param capacity The maximum number of events waiting to be delivered
+     * @throws IllegalArgumentException if {@code capacity} is less than 1
+     */
+    public AsyncListenerDispatcher(final java.util.concurrent.Executor executor, final int capacity) {
+        this.executor = Objects.requireNonNull(executor, "executor cannot be null");
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = capacity;
+    }
+
+    @Override
+    public void dispatch(final PropertyChangeEvent event, final Collection<? extends PropertyChangeListener> listeners) {
+        if (!queue.offer(new PendingEvent(event, listeners))) {
+            dropped.incrementAndGet();
+        }
+        this.schedule();
+    }
+
+    /**
+     * @return the number of events dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of events waiting to be delivered
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    private void schedule() {
+        if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::deliver);
+            } catch (final RuntimeException e) {
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void deliver() {
+        final List<PendingEvent> batch = new ArrayList<>();
+        try {
+            while (queue.drainTo(batch, batchSize) > 0) {
+                for (final PendingEvent pending : batch) {
+                    pending.deliver();
+                }
+                batch.clear();
+            }
+        } finally {
+            scheduled.set(false);
+            //an event may have been queued after the last drain but before scheduled was cleared
+            this.schedule();
+        }
+    }
+
+    private static final class PendingEvent {
+        private final PropertyChangeEvent event;
+        private final Collection<? extends PropertyChangeListener> listeners;
+
+        private PendingEvent(final PropertyChangeEvent event, final Collection<? extends PropertyChangeListener> listeners) {
+            this.event = event;
+            this.listeners = listeners;
+        }
+
+        private void deliver() {
+            for (final PropertyChangeListener listener : listeners) {
+                try {
+                    listener.propertyChange(event);
+                } catch (final RuntimeException e) {
+                    //one failing listener must not prevent delivery to the others
+                    final Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.logdyn;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The {@link CommandCodec} of each class of command, used whenever a {@link CommandDelegator} stores commands: in its
+ * {@link ExecutionJournal}, its snapshots and its spilled history. A registry can be shared between several delegators.
+ * <p>
+ * A command with a codec is stored as a marker byte, the id of its codec and the version of the codec as variable length integers,
+ * then the bytes written by the codec. Any other command is stored using Java serialization, whose stream can never start with
+ * the marker byte, so data written before a codec was registered can still be read.
+ * </p>
+ * <p>
+ * A {@link CompositeCommand} is always stored by the registry itself, as its own marker byte, its name and each of its commands
+ * stored in turn, so a batch can be stored whenever the commands in it can.
+ * </p>
+ * <p>
+ * Codecs are held in an immutable snapshot, which is copied and replaced whenever a codec is registered, so encoding and decoding never lock.
+ * </p>
+ */
+public class CodecRegistry {
+
+    private static final byte CODEC_MARKER = 1;
+    private static final byte COMPOSITE_MARKER = 2;
+
+    private volatile Codecs codecs = new Codecs(Collections.emptyMap(), Collections.emptyMap());
+
+    /**
+     * Registers the codec of a class of command. The codec only encodes commands of exactly that class, instances of sub-classes
+     * are stored using Java serialization unless they have a codec of their own. A codec can not be unregistered or replaced,
+     * as stored commands refer to it by id
+     * @param id The id the codec is stored as, must stay the same for the class of command wherever the stored commands are read
+     * @param clazz The class of the command
+     * @param codec The codec of the command
+     * @param <C> The type of the command
+     * @return Returns true if the codec is successfully registered, returns false if a codec of the class or with the id is already registered
+     * @throws IllegalArgumentException if the id is negative
+     */
+    public synchronized <C extends Command> boolean register(final int id, final Class<C> clazz, final CommandCodec<C> codec) {
+        Objects.requireNonNull(clazz, "Clazz cannot be null");
+        Objects.requireNonNull(codec, "Codec cannot be null");
+        if (id < 0) {
+            throw new IllegalArgumentException("id cannot be negative: " + id);
+        }
+
+        final Codecs current = this.codecs;
+        if (current.byClass.containsKey(clazz) || current.byId.containsKey(id)) {
+            return false;
+        }
+        final Registration registration = new Registration(id, codec);
+        final Map<Class<?>, Registration> byClass = new HashMap<>(current.byClass);
+        byClass.put(clazz, registration);
+        final Map<Integer, Registration> byId = new HashMap<>(current.byId);
+        byId.put(id, registration);
+        this.codecs = new Codecs(byClass, byId);
+        return true;
+    }
+
+    /**
+     * Writes a command at the position of the buffer, advancing the position past it
+     * @param command The command to encode
+     * @param buffer The buffer to write to
+     * @throws BufferOverflowException if the buffer has too little space, in which case its position is unchanged
+     * @throws IOException if the command cannot be encoded
+     */
+    void encode(final Command command, final ByteBuffer buffer) throws IOException {
+        final Registration registration = codecs.byClass.get(command.getClass());
+        final int start = buffer.position();
+        try {
+            if (command.getClass() == CompositeCommand.class) {
+                this.encodeComposite((CompositeCommand) command, buffer);
+                return;
+            }
+            if (registration == null) {
+                buffer.put(CommandSerializer.serialize(command));
+                return;
+            }
+            buffer.put(CODEC_MARKER);
+            putVarInt(buffer, registration.id);
+            putVarInt(buffer, registration.codec.getVersion());
+            //Unchecked call to encode()
+            //the codec was registered for exactly the class of the command
+            //noinspection unchecked
+            registration.codec.encode(command, buffer);
+        } catch (final BufferOverflowException e) {
+            buffer.position(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the name of a batch, the number of commands in it, then each command preceded by its length
+     */
+    private void encodeComposite(final CompositeCommand command, final ByteBuffer buffer) throws IOException {
+        buffer.put(COMPOSITE_MARKER);
+        final String name = command.getName();
+        if (name == null) {
+            buffer.putInt(-1);
+        } else {
+            final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+        final List<Command> commands = command.getCommands();
+        putVarInt(buffer, commands.size());
+        for (final Command member : commands) {
+            final int lengthPosition = buffer.position();
+            buffer.putInt(0); //command length, filled in once the command is encoded
+            this.encode(member, buffer);
+            buffer.putInt(lengthPosition, buffer.position() - lengthPosition - Integer.BYTES);
+        }
+    }
+
+    /**
+     * Writes a command at the position of a heap buffer, replacing the buffer with a larger copy if it has too little space
+     * @param command The command to encode
+     * @param buffer The buffer to write to
+     * @return the buffer the command was written to, with its position past the command
+     * @throws IOException if the command cannot be encoded
+     */
+    ByteBuffer encodeGrowing(final Command command, ByteBuffer buffer) throws IOException {
+        while (true) {
+            try {
+                this.encode(command, buffer);
+                return buffer;
+            } catch (final BufferOverflowException e) {
+                if (buffer.capacity() > Integer.MAX_VALUE / 2) {
+                    throw new IOException("Command is too large to encode: " + command.getName());
+                }
+                final ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+    }
+
+    /**
+     * @param command The command to encode
+     * @return the encoded command
+     * @throws IOException if the command cannot be encoded
+     */
+    byte[] encode(final Command command) throws IOException {
+        final ByteBuffer buffer = this.encodeGrowing(command, ByteBuffer.allocate(256));
+        final byte[] bytes = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads a command, decoding it in place without copying the buffer if it has a codec
+     * @param buffer The encoded command, from its position to its limit. Its position is moved to its limit
+     * @return the decoded command
+     * @throws IOException if the command cannot be decoded, or its codec is not registered
+     */
+    Command decode(final ByteBuffer buffer) throws IOException {
+        return this.decode(buffer, true);
+    }
+
+    /**
+     * Reads a command, see {@link #decode(ByteBuffer)}
+     * @param buffer The encoded command, from its position to its limit. Its position is moved to its limit
+     * @param allowSerialization Whether a command without a codec may be read using Java serialization, which must only be
+     *                           allowed for trusted data, as deserializing can run code of any serializable class
+     * @return the decoded command
+     * @throws IOException if the command cannot be decoded, its codec is not registered, or it needs Java serialization and that is not allowed
+     */
+    Command decode(final ByteBuffer buffer, final boolean allowSerialization) throws IOException {
+        if (!buffer.hasRemaining()) {
+            throw new IOException("No command to decode");
+        }
+        final byte marker = buffer.get(buffer.position());
+        if (marker == COMPOSITE_MARKER) {
+            return this.decodeComposite(buffer, allowSerialization);
+        }
+        if (marker != CODEC_MARKER) {
+            if (!allowSerialization) {
+                throw new IOException("Command has no registered codec, and Java serialization is not allowed");
+            }
+            final Command command;
+            if (buffer.hasArray()) {
+                command = CommandSerializer.deserialize(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                final byte[] bytes = new byte[buffer.remaining()];
+                buffer.duplicate().get(bytes);
+                command = CommandSerializer.deserialize(bytes, 0, bytes.length);
+            }
+            buffer.position(buffer.limit());
+            return command;
+        }
+
+        try {
+            buffer.get();
+            final int id = getVarInt(buffer);
+            final int version = getVarInt(buffer);
+            final Registration registration = codecs.byId.get(id);
+            if (registration == null) {
+                throw new IOException("No codec registered with id: " + id);
+            }
+            if (version > registration.codec.getVersion()) {
+                throw new IOException("Command was encoded by a newer version of codec " + id + ": " + version);
+            }
+            final Command command = registration.codec.decode(buffer.slice(), version);
+            buffer.position(buffer.limit());
+            return command;
+        } catch (final BufferUnderflowException e) {
+            throw new IOException("Encoded command is truncated", e);
+        }
+    }
+
+    private CompositeCommand decodeComposite(final ByteBuffer buffer, final boolean allowSerialization) throws IOException {
+        try {
+            buffer.get();
+            final int nameLength = buffer.getInt();
+            String name = null;
+            if (nameLength >= 0) {
+                if (nameLength > buffer.remaining()) {
+                    throw new IOException("Invalid name length: " + nameLength);
+                }
+                final byte[] bytes = new byte[nameLength];
+                buffer.get(bytes);
+                name = new String(bytes, StandardCharsets.UTF_8);
+            }
+            final int count = getVarInt(buffer);
+            if (count <= 0 || count > buffer.remaining()) {
+                throw new IOException("Invalid number of commands: " + count);
+            }
+            final List<Command> commands = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    throw new IOException("Invalid command length: " + length);
+                }
+                final ByteBuffer member = buffer.slice();
+                member.limit(length);
+                commands.add(this.decode(member, allowSerialization));
+                buffer.position(buffer.position() + length);
+            }
+            buffer.position(buffer.limit());
+            return new CompositeCommand(name, commands);
+        } catch (final BufferUnderflowException e) {
+            throw new IOException("Encoded command is truncated", e);
+        }
+    }
+
+    private static void putVarInt(final ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarInt(final ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            final byte next = buffer.get();
+            value |= (next & 0x7F) << shift;
+            if (next >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    private static final class Registration {
+        private final int id;
+        private final CommandCodec codec;
+
+        private Registration(final int id, final CommandCodec codec) {
+            this.id = id;
+            this.codec = codec;
+        }
+    }
+
+    /**
+     * An immutable set of registrations, indexed by class and by id
+     */
+    private static final class Codecs {
+        private final Map<Class<?>, Registration> byClass;
+        private final Map<Integer, Registration> byId;
+
+        private Codecs(final Map<Class<?>, Registration> byClass, final Map<Integer, Registration> byId) {
+            this.byClass = byClass;
+            this.byId = byId;
+        }
+    }
+}
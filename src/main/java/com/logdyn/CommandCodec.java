@@ -0,0 +1,41 @@
+package com.logdyn;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes one class of command to and from a compact binary form, see {@link CodecRegistry#register(int, Class, CommandCodec)}.
+ * Commands without a codec are stored using Java serialization.
+ * <p>
+ * Every encoded command is stored with the version of the codec that wrote it. When the form of a command changes, increase the
+ * version and keep decoding the older versions, so journals, snapshots and spilled history written before the change can still be read.
+ * </p>
+ * @param <C> The type of the command
+ */
+public interface CommandCodec<C extends Command> {
+
+    /**
+     * @return the version of the form written by {@link #encode(Command, ByteBuffer)}, not negative
+     */
+    int getVersion();
+
+    /**
+     * Writes a command at the position of the buffer, advancing the position past it. The buffer may be a view of a file or of a
+     * larger frame, so must only be written between its position and limit
+     * @param command The command to encode
+     * @param buffer The buffer to write to
+     * @throws java.nio.BufferOverflowException if the buffer has too little space, the command is then encoded again into a larger buffer
+     * @throws IOException if the command cannot be encoded
+     */
+    void encode(C command, ByteBuffer buffer) throws IOException;
+
+    /**
+     * Reads a command from a buffer holding exactly the bytes written by {@link #encode(Command, ByteBuffer)}. The buffer may be a view
+     * of a file, and is only valid during the call, so the command must copy out anything it keeps
+     * @param buffer The encoded command, from its position to its limit
+     * @param version The version of the codec that encoded the command, at most {@link #getVersion()}
+     * @return the decoded command
+     * @throws IOException if the command cannot be decoded
+     */
+    C decode(ByteBuffer buffer, int version) throws IOException;
+}
@@ -2,26 +2,104 @@ package com.logdyn;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Controls the delegation of commands to their respective executor classes. Provides the ability to listen for the execution of commands.
+ * Each delegator has its own history, records and listeners, and may share its {@link ExecutorRegistry} with other delegators.
  */
 public class CommandDelegator{
 
     private static final CommandDelegator INSTANCE = new CommandDelegator();
 
-    private final Map<Class<?>, Executor<?>> executors = new TreeMap<>(new ClassHierarchyComparator());
-    private final ListIterator<Command> commands = new LinkedList<Command>().listIterator();
-    private final SortedSet<ExecutionRecord> executionRecords = new TreeSet<>();
+    /**
+     * The number of {@link ExecutionRecord}s retained by default
+     */
+    public static final int DEFAULT_RECORD_RETENTION = 1024;
+
+    private final ExecutorRegistry executors;
+    private final CodecRegistry codecs;
+    private final CommandHistory history = new CommandHistory();
+    private final ConcurrentMap<Object, KeyedHistory> keyedHistories = new ConcurrentHashMap<>();
+    private volatile HistoryPolicy keyedHistoryPolicy = HistoryPolicy.unbounded();
+    //guards the execution log, sequence number and nano time setting, and is held while listeners are notified so events are
+    //delivered in the order of their records. Only listeners take other locks while holding it, so keyed histories can add
+    //records without waiting for operations on the main history
+    private final Object recordLock = new Object();
+    private final ExecutionLog executionLog = new ExecutionLog(DEFAULT_RECORD_RETENTION);
+    private long sequence;
+    private boolean recordNanoTime;
+    private boolean deferNotifications;
+
+    //written under the lock of the delegator, read without it by parallel commands
+    private volatile ExecutionJournal journal;
+    private ReplicationStream replication;
+
+    private long mergeWindow = Long.MAX_VALUE;
+    private Command mergeTarget;
+    private long mergeTargetTime;
+
+    private final List<PropertyChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile ListenerDispatcher listenerDispatcher = ListenerDispatcher.SYNCHRONOUS;
+    private volatile DelegatorMetrics metrics = DelegatorMetrics.NONE;
+    private volatile boolean captureStackTraces = true;
+
+    private final CompositeExecutor compositeExecutor = new CompositeExecutor(this::getExecutor);
+    private final SerialExecutor asyncExecutor = new SerialExecutor(ForkJoinPool.commonPool());
+    private final ConflictScheduler parallelScheduler = new ConflictScheduler(ForkJoinPool.commonPool(), () -> Thread.holdsLock(this));
 
-    private CommandDelegator() {}
+    /**
+     * Creates a delegator with its own, empty, {@link ExecutorRegistry}
+     */
+    public CommandDelegator() {
+        this(new ExecutorRegistry());
+    }
+
+    /**
+     * Creates a delegator that resolves executors from the given registry, which may be shared with other delegators
+     * @param executors The registry of executors to delegate commands to
+     */
+    public CommandDelegator(final ExecutorRegistry executors) {
+        this(executors, new CodecRegistry());
+    }
 
+    /**
+     * Creates a delegator that resolves executors and codecs from the given registries, which may be shared with other delegators
+     * @param executors The registry of executors to delegate commands to
+     * @param codecs The registry of codecs to store commands with
+     */
+    public CommandDelegator(final ExecutorRegistry executors, final CodecRegistry codecs) {
+        this.executors = Objects.requireNonNull(executors, "executors cannot be null");
+        this.codecs = Objects.requireNonNull(codecs, "codecs cannot be null");
+    }
+
+    /**
+     * @return the shared, application wide, delegator
+     */
     public static CommandDelegator getINSTANCE() {
         return INSTANCE;
     }
 
-    private final List<PropertyChangeListener> listeners = new LinkedList<>();
+    public ExecutorRegistry getExecutorRegistry() {
+        return executors;
+    }
+
+    public CodecRegistry getCodecRegistry() {
+        return codecs;
+    }
 
     /**
      * Subscribes an executor to listen for and execute any commands that are an instance of the specified class, or any sub-classes
@@ -31,19 +109,31 @@ public class CommandDelegator{
      * @return Returns true if the executor is successfully subscribed, returns false if the an executor of the class or a parent class is already subscribed
      */
     public <C extends Command> boolean subscribe(final Executor<C> executor, final Class <C> clazz) {
+        return executors.subscribe(executor, clazz);
+    }
 
-        Objects.requireNonNull(executor, "Executor cannot be null");
-        Objects.requireNonNull(clazz, "Clazz cannot be null");
-
-        //prevent duplicate subscription to a command
-        for (Class<?> subbedClass: executors.keySet()) {
-            if (subbedClass.isAssignableFrom(clazz)) {
-                return false;
-            }
-        }
+    /**
+     * Subscribes one of several executors to the specified class, see {@link ExecutorRegistry#subscribeMulticast(Executor, Class)}
+     * @param executor An executor for the command or sub-classes of the command
+     * @param clazz The class of the command
+     * @param <C> The type of the command the executor will handle
+     * @return Returns true if the executor is successfully subscribed, returns false if it is already subscribed to the class, or an
+     * executor of a parent class or a single executor of the class is already subscribed
+     */
+    public <C extends Command> boolean subscribeMulticast(final Executor<C> executor, final Class <C> clazz) {
+        return executors.subscribeMulticast(executor, clazz);
+    }
 
-        executors.put(clazz, executor);
-        return true;
+    /**
+     * Registers the codec used to store commands of exactly the specified class, see {@link CodecRegistry#register(int, Class, CommandCodec)}
+     * @param id The id the codec is stored as
+     * @param clazz The class of the command
+     * @param codec The codec of the command
+     * @param <C> The type of the command
+     * @return Returns true if the codec is successfully registered, returns false if a codec of the class or with the id is already registered
+     */
+    public <C extends Command> boolean registerCodec(final int id, final Class<C> clazz, final CommandCodec<C> codec) {
+        return codecs.register(id, clazz, codec);
     }
 
     /**
@@ -53,23 +143,64 @@ public class CommandDelegator{
      * @return Returns true if the executor is found and removed, returns false if it is not found
      */
     public <C extends Command> boolean unsubscribe(final Executor<C> executor) {
-        return executors.entrySet().removeIf((e) -> e.getValue().equals(executor));
+        return executors.unsubscribe(executor);
     }
 
     /**
      * Gets the most generic executor for the given command
      * @param command The command for the executor to handle
-     * @return Returns the most generic executor for the given command, returns null if no suitable executor can be found
+     * @return Returns the most generic executor for the given command
      * @throws NoSuchExecutorException if there is no registered {@link Executor} for the given {@link Command}
      */
     private Executor getExecutor(final Command command) {
-        Objects.requireNonNull(command, "command must be not null");
-        for (final Map.Entry<Class<?>, Executor<?>> entry : executors.entrySet()) {
-            if (entry.getKey().isAssignableFrom(command.getClass())) {
-                return entry.getValue();
+        final Executor executor = this.findExecutor(command);
+        if (executor == null) {
+            throw new NoSuchExecutorException(this.findUnresolved(command), captureStackTraces);
+        }
+        return executor;
+    }
+
+    /**
+     * Gets the most generic executor for the given command, without throwing
+     * @param command The command for the executor to handle
+     * @return Returns the most generic executor for the given command, or null if there is none for it or a command of its batch
+     */
+    private Executor findExecutor(final Command command) {
+        if (command instanceof CompositeCommand) {
+            //resolve every command of the batch up front, so a missing executor fails before anything executes
+            return this.findUnresolved(command) == null ? compositeExecutor : null;
+        }
+        return executors.findExecutor(command);
+    }
+
+    /**
+     * @param command A command or batch of commands
+     * @return the command, or the command of the batch, that has no registered executor, or null if every command has one
+     */
+    private Command findUnresolved(final Command command) {
+        if (command instanceof CompositeCommand) {
+            for (final Command member : ((CompositeCommand) command).getCommands()) {
+                final Command unresolved = this.findUnresolved(member);
+                if (unresolved != null) {
+                    return unresolved;
+                }
             }
+            return null;
         }
-        throw new NoSuchExecutorException(command);
+        return executors.findExecutor(command) == null ? command : null;
+    }
+
+    /**
+     * Sets whether the exceptions thrown by the delegator capture a stack trace, by default true. Workloads where failures are expected
+     * can skip the cost of capturing them, or avoid the exceptions altogether with {@link #tryPublish(Command)}, {@link #tryUndo()} and {@link #tryRedo()}
+     * @param captureStackTraces whether to capture stack traces
+     */
+    public void setCaptureStackTraces(final boolean captureStackTraces) {
+        this.captureStackTraces = captureStackTraces;
+    }
+
+    public boolean isCaptureStackTraces() {
+        return captureStackTraces;
     }
 
     /**
@@ -78,7 +209,7 @@ public class CommandDelegator{
      * @throws ExecutionException if the command does not execute successfully
      * @throws NoSuchExecutorException if there is no registered {@link Executor} for the given {@link Command}
      */
-    public synchronized void publish(final Command command) throws ExecutionException {
+    public void publish(final Command command) throws ExecutionException {
         this.publish(command, true);
     }
 
@@ -89,10 +220,75 @@ public class CommandDelegator{
      * @throws ExecutionException if the command does not execute successfully
      * @throws NoSuchExecutorException if there is no registered {@link Executor} for the given {@link Command}
      */
-    public synchronized void publish(final Command command, final boolean record) throws ExecutionException {
-        final Executor executor = getExecutor(command);
+    public void publish(final Command command, final boolean record) throws ExecutionException {
+        this.tryPublish(command, record).throwIfFailed(captureStackTraces);
+    }
+
+    /**
+     * Publishes command to the most generic subscribed executor, reporting a failure rather than throwing it. Always records for undo,
+     * see {@link #tryPublish(Command, boolean)}
+     * @param command The command to execute
+     * @return the outcome, {@link ExecutionResult.Status#FAILED} or {@link ExecutionResult.Status#NO_EXECUTOR} if the command did not execute
+     */
+    public ExecutionResult tryPublish(final Command command) {
+        return this.tryPublish(command, true);
+    }
+
+    /**
+     * Publishes command to the most generic subscribed executor for that command, reporting a failure rather than throwing it,
+     * see {@link #publish(Command, boolean)}
+     * @param command The command to publish and execute
+     * @param record whether or not to add the command to the stack, enabling undo/redo
+     * @return the outcome, {@link ExecutionResult.Status#FAILED} or {@link ExecutionResult.Status#NO_EXECUTOR} if the command did not execute
+     */
+    public ExecutionResult tryPublish(final Command command, final boolean record) {
+        final DelegatorMetrics metrics = this.currentMetrics();
+        final long requested = metrics != DelegatorMetrics.NONE ? System.nanoTime() : 0L;
+        final int exclusive = parallelScheduler.enterExclusive();
+        try {
+            synchronized (this) {
+                this.lockAcquired(metrics, requested);
+                try {
+                    return this.publish(command, record, metrics);
+                } finally {
+                    this.sizesChanged(metrics);
+                }
+            }
+        } finally {
+            parallelScheduler.exitExclusive(exclusive);
+        }
+    }
+
+    private ExecutionResult publish(final Command command, final boolean record, final DelegatorMetrics metrics) {
+        final Executor executor = this.findExecutor(command);
+        if (executor == null) {
+            return ExecutionResult.noExecutor(this.findUnresolved(command));
+        }
+        try {
+            this.checkJournal();
+        } catch (final IOException e) {
+            return ExecutionResult.failed(command, e);
+        }
+
+        final long started = metrics != DelegatorMetrics.NONE ? System.nanoTime() : 0L;
+        try {
+            //Unchecked call to execute()
+            //doing this because can't determine type until runtime, will be correct
+            //noinspection unchecked
+            executor.execute(command);
+        } catch (Exception e) {
+            this.executed(metrics, command, ExecutionRecord.Operation.DO, started, true);
+            return ExecutionResult.failed(command, e);
+        }
+        this.executed(metrics, command, ExecutionRecord.Operation.DO, started, false);
+        try {
+            this.stageJournal(command);
+        } catch (final IOException e) {
+            this.revert(executor, command, e);
+            return ExecutionResult.failed(command, e);
+        }
 
-        //remove any redoable commands in front of published command
+        //remove any redoable commands in front of published command, once it has executed and can be recorded
         //i.e. can't publish, undo, publish, then redo the first publish
         if (record)
         {
@@ -101,24 +297,215 @@ public class CommandDelegator{
 
 
         //If the command is not undoable, clear all previous history
-        if (!(command instanceof UndoableCommand) && record) {
+        if (!CompositeCommand.isUndoable(command) && record) {
             this.clearUndoHistory();
         }
 
+        HistoryTransition transition = HistoryTransition.PUBLISH;
+        if (record) {
+            final long now = System.currentTimeMillis();
+            if (this.merge(command, now)) {
+                transition = HistoryTransition.PUBLISH_MERGED;
+            } else {
+                history.push(command);
+                transition = HistoryTransition.PUBLISH_RECORDED;
+            }
+            //later commands may only merge into this one while it stays at the top of the history
+            this.mergeTarget = history.peekUndo();
+            this.mergeTargetTime = now;
+        }
+
+        final ExecutionRecord executionRecord = this.addExecutionRecord(command, ExecutionRecord.Operation.DO, !deferNotifications);
+        this.journal(transition, executionRecord);
+        return ExecutionResult.SUCCESS;
+    }
+
+    /**
+     * Publishes a batch of commands as a single unit, see {@link #publishAll(String, Collection)}
+     * @param commands The commands to execute, in order
+     * @throws ExecutionException if a command does not execute successfully
+     * @throws NoSuchExecutorException if there is no registered {@link Executor} for one of the commands
+     */
+    public void publishAll(final Collection<? extends Command> commands) throws ExecutionException {
+        this.publish(new CompositeCommand(commands));
+    }
+
+    /**
+     * Publishes a batch of commands as a single unit. The batch is recorded as one {@link CompositeCommand} that is undone and redone
+     * as a whole, and listeners are notified once. If a command fails, the commands of the batch already executed are undone before
+     * the exception is thrown. If any command is not undoable, the batch is not undoable and clears the undo history
+     * @param name The name of the batch, as returned by {@link #getUndoName()}
+     * @param commands The commands to execute, in order
+     * @throws ExecutionException if a command does not execute successfully
+     * @throws NoSuchExecutorException if there is no registered {@link Executor} for one of the commands
+     * @throws IllegalArgumentException if {@code commands} is empty
+     */
+    public void publishAll(final String name, final Collection<? extends Command> commands) throws ExecutionException {
+        this.publish(new CompositeCommand(name, commands));
+    }
+
+    /**
+     * Publishes a command on the async executor, see {@link #publishAsync(Command, boolean)}
+     * @param command The command to execute
+     * @return a future completed once the command has executed
+     */
+    public CompletableFuture<Void> publishAsync(final Command command) {
+        return this.publishAsync(command, true);
+    }
+
+    /**
+     * Publishes a command on the async executor, see {@link #setAsyncExecutor(java.util.concurrent.Executor)}.
+     * Asynchronous publishes, undos and redos are performed one at a time, in the order they are called
+     * @param command The command to publish and execute
+     * @param record whether or not to add the command to the stack, enabling undo/redo
+     * @return a future completed once the command has executed, or completed exceptionally with the exception {@link #publish(Command, boolean)} would throw
+     */
+    public CompletableFuture<Void> publishAsync(final Command command, final boolean record) {
+        Objects.requireNonNull(command, "command must be not null");
+        return this.submit(() -> this.publish(command, record));
+    }
+
+    /**
+     * Undoes the previous command on the async executor, after any asynchronous operation already submitted
+     * @return a future completed once the command has been undone, or completed exceptionally with the exception {@link #undo()} would throw
+     */
+    public CompletableFuture<Void> undoAsync() {
+        return this.submit(this::undo);
+    }
+
+    /**
+     * Redoes the next command on the async executor, after any asynchronous operation already submitted
+     * @return a future completed once the command has been redone, or completed exceptionally with the exception {@link #redo()} would throw
+     */
+    public CompletableFuture<Void> redoAsync() {
+        return this.submit(this::redo);
+    }
+
+    /**
+     * Sets the executor asynchronous operations run on, by default {@link ForkJoinPool#commonPool()}.
+     * Operations already submitted keep their order relative to those submitted afterwards
+     * @param executor The executor to run asynchronous operations on
+     */
+    public void setAsyncExecutor(final java.util.concurrent.Executor executor) {
+        asyncExecutor.setTarget(executor);
+    }
+
+    public java.util.concurrent.Executor getAsyncExecutor() {
+        return asyncExecutor.getTarget();
+    }
+
+    private CompletableFuture<Void> submit(final AsyncOperation operation) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            asyncExecutor.execute(() -> {
+                try {
+                    operation.perform();
+                    future.complete(null);
+                } catch (final Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (final RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Publishes a command on the parallel workers, recording it for undo, see {@link #publishParallel(Command, boolean)}
+     * @param command The command to execute
+     * @return a future completed once the command has executed and been recorded
+     */
+    public CompletableFuture<Void> publishParallel(final Command command) {
+        return this.publishParallel(command, true);
+    }
+
+    /**
+     * Publishes a command on the parallel workers, see {@link #setParallelExecutor(java.util.concurrent.Executor)}.
+     * A {@link KeyedCommand} executes at the same time as other parallel commands, unless they share a conflict key, in which case
+     * they execute one at a time in the order they were published. Any other command executes alone, after every command published
+     * before it. Synchronous and asynchronous publishes, undos and redos wait for the parallel commands published before them to finish,
+     * and hold back those published after them, so the undo and redo of commands sharing a key happen in order.
+     * <p>
+     * The executor is called without locking the delegator, which is only locked to record the command once it has executed.
+     * Parallel commands are never merged into a {@link MergeableCommand}
+     * </p>
+     * @param command The command to publish and execute
+     * @param record whether or not to add the command to the stack, enabling undo/redo
+     * @return a future completed once the command has executed and been recorded, or completed exceptionally with the exception
+     * {@link #publish(Command, boolean)} would throw
+     */
+    public CompletableFuture<Void> publishParallel(final Command command, final boolean record) {
+        Objects.requireNonNull(command, "command must be not null");
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final Collection<?> keys = command instanceof KeyedCommand ? ((KeyedCommand) command).getConflictKeys() : null;
+        parallelScheduler.submit(keys, () -> {
+            try {
+                this.publishParallel(command, record, this.currentMetrics());
+                future.complete(null);
+            } catch (final Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }, future);
+        return future;
+    }
+
+    private void publishParallel(final Command command, final boolean record, final DelegatorMetrics metrics) throws ExecutionException {
+        final Executor executor = getExecutor(command);
+        try {
+            this.checkJournal();
+        } catch (final IOException e) {
+            throw new ExecutionException(e.getMessage(), e, captureStackTraces);
+        }
+        final long started = metrics != DelegatorMetrics.NONE ? System.nanoTime() : 0L;
         try {
             //Unchecked call to execute()
             //doing this because can't determine type until runtime, will be correct
             //noinspection unchecked
             executor.execute(command);
         } catch (Exception e) {
-            throw new ExecutionException(e);
+            this.executed(metrics, command, ExecutionRecord.Operation.DO, started, true);
+            throw new ExecutionException(e.getMessage(), e, captureStackTraces);
         }
+        this.executed(metrics, command, ExecutionRecord.Operation.DO, started, false);
 
-        if (record) {
-            commands.add(command);
+        final long requested = metrics != DelegatorMetrics.NONE ? System.nanoTime() : 0L;
+        synchronized (this) {
+            this.lockAcquired(metrics, requested);
+            try {
+                try {
+                    this.stageJournal(command);
+                } catch (final IOException e) {
+                    this.revert(executor, command, e);
+                    throw new ExecutionException(e.getMessage(), e, captureStackTraces);
+                }
+                HistoryTransition transition = HistoryTransition.PUBLISH;
+                if (record) {
+                    this.clearRedoHistory();
+                    if (!CompositeCommand.isUndoable(command)) {
+                        this.clearUndoHistory();
+                    }
+                    history.push(command);
+                    transition = HistoryTransition.PUBLISH_RECORDED;
+                }
+                final ExecutionRecord executionRecord = this.addExecutionRecord(command, ExecutionRecord.Operation.DO, !deferNotifications);
+                this.journal(transition, executionRecord);
+            } finally {
+                this.sizesChanged(metrics);
+            }
         }
+    }
 
-        this.addExecutionRecord(new ExecutionRecord(command, ExecutionRecord.Operation.DO));
+    /**
+     * Sets the executor parallel commands run on, by default {@link ForkJoinPool#commonPool()}
+     * @param executor The executor to run parallel commands on
+     */
+    public void setParallelExecutor(final java.util.concurrent.Executor executor) {
+        parallelScheduler.setWorkers(executor);
+    }
+
+    public java.util.concurrent.Executor getParallelExecutor() {
+        return parallelScheduler.getWorkers();
     }
 
     /**
@@ -128,43 +515,152 @@ public class CommandDelegator{
      * @throws ExecutionException if undo does not execute successfully
      * @throws NoSuchExecutorException if there is no registered {@link Executor} for the {@link Command} to be undone
      */
-    public synchronized void undo() throws ExecutionException {
+    public void undo() throws ExecutionException {
+        this.undo(1);
+    }
+
+    /**
+     * Undos the latest command, reporting a failure rather than throwing it, see {@link #undo()}
+     * @return the outcome, {@link ExecutionResult.Status#NOTHING_TO_UNDO} if there is no {@link Command} to be undone
+     */
+    public ExecutionResult tryUndo() {
+        return this.undo(1, null);
+    }
 
-        final Command command = commands.previous();
+    private ExecutionResult undoStep(final CommandHistory target, final DelegatorMetrics metrics) {
+        if (target == history) {
+            try {
+                this.checkJournal();
+            } catch (final IOException e) {
+                return ExecutionResult.failed(target.peekUndo(), e);
+            }
+        }
+        final Command command;
+        try {
+            command = target.undo();
+        } catch (final UncheckedIOException e) {
+            //a spilled command could not be read back, the history is unchanged
+            return ExecutionResult.failed(target.peekUndo(), e.getCause());
+        }
+        if (target == history) {
+            this.mergeTarget = null;
+        }
 
         try {
-            if (command instanceof UndoableCommand) {
-                Executor executor = getExecutor(command);
+            if (CompositeCommand.isUndoable(command)) {
+                final Executor executor = this.findExecutor(command);
+                if (executor == null) {
+                    target.redo();
+                    return ExecutionResult.noExecutor(this.findUnresolved(command));
+                }
                 if (executor instanceof UndoableExecutor) {
                     final UndoableExecutor undoableExecutor = (UndoableExecutor) executor;
-                    //Unchecked call to unexecute()
-                    //doing this because can't determine type until runtime, will be correct
-                    //noinspection unchecked
-                    undoableExecutor.unexecute((UndoableCommand) command);
+                    final long started = metrics != DelegatorMetrics.NONE ? System.nanoTime() : 0L;
+                    try {
+                        //Unchecked call to unexecute()
+                        //doing this because can't determine type until runtime, will be correct
+                        //noinspection unchecked
+                        undoableExecutor.unexecute((UndoableCommand) command);
+                    } catch (final Exception e) {
+                        this.executed(metrics, command, ExecutionRecord.Operation.UNDO, started, true);
+                        throw e;
+                    }
+                    this.executed(metrics, command, ExecutionRecord.Operation.UNDO, started, false);
 
-                    this.addExecutionRecord(new ExecutionRecord(command, ExecutionRecord.Operation.UNDO));
-                    return;
+                    this.record(target, command, ExecutionRecord.Operation.UNDO, HistoryTransition.UNDO);
+                    return ExecutionResult.SUCCESS;
                 }
             }
-            commands.next();
+            target.redo();
         } catch (NoSuchExecutorException e) {
-            commands.next();
-            throw e;
+            target.redo();
+            return ExecutionResult.noExecutor(e.getCommand());
         } catch (final Exception e) {
             //Undo rolling history back
-            this.clearUndoHistory();
-            throw new ExecutionException(e);
+            target.clearUndo();
+            if (target == history) {
+                this.journal(HistoryTransition.UNDO_FAILED, null);
+            }
+            return ExecutionResult.failed(command, e);
         }
+        return ExecutionResult.SUCCESS;
     }
 
-    public void undo(int count) throws ExecutionException {
+    /**
+     * Undoes several commands as one operation. The delegator is locked once for all of the steps, so no other operation can interleave,
+     * and listeners are notified once, of the latest record before and after the steps. If a step fails, the steps before it remain undone.
+     * To undo up to an entry of {@link #getUndoNames(int)}, pass its index plus one
+     * @param count The number of commands to undo
+     * @throws IndexOutOfBoundsException if {@code count} is less than 0
+     * @throws NoSuchElementException if fewer than {@code count} commands can be undone, in which case nothing is undone
+     * @throws ExecutionException if a step does not execute successfully
+     * @throws NoSuchExecutorException if there is no registered {@link Executor} for a {@link Command} to be undone
+     */
+    public void undo(final int count) throws ExecutionException {
         if (count < 0)
         {
             throw new IndexOutOfBoundsException("Index out of range: " + count);
         }
+        this.undo(count, null).throwIfFailed(captureStackTraces);
+    }
 
-        for (int i = 0; i < count; i++) {
-            undo();
+    /**
+     * Undoes commands until the command of the given record has been undone, as one operation, see {@link #undo(int)}
+     * @param record A record of a command that can be undone
+     * @throws NoSuchElementException if the command of the record cannot be undone, in which case nothing is undone
+     * @throws ExecutionException if a step does not execute successfully
+     * @throws NoSuchExecutorException if there is no registered {@link Executor} for a {@link Command} to be undone
+     */
+    public void undoTo(final ExecutionRecord record) throws ExecutionException {
+        Objects.requireNonNull(record, "record cannot be null");
+        this.undo(0, record.getCommand()).throwIfFailed(captureStackTraces);
+    }
+
+    /**
+     * @param count The number of steps, ignored if there is a target
+     * @param target The command to stop after, or null to take {@code count} steps
+     * @return the outcome of the first step that did not succeed, or success
+     * @throws NoSuchElementException if the target, or {@code count} commands when some can be undone, cannot be undone
+     */
+    private ExecutionResult undo(final int count, final Command target) {
+        final DelegatorMetrics metrics = this.currentMetrics();
+        final long requested = metrics != DelegatorMetrics.NONE ? System.nanoTime() : 0L;
+        final int exclusive = parallelScheduler.enterExclusive();
+        try {
+            synchronized (this) {
+                this.lockAcquired(metrics, requested);
+                try {
+                    final int steps = target == null ? count : history.undoDepth(target);
+                    if (steps < 0) {
+                        throw new NoSuchElementException("The command cannot be undone: " + target.getName());
+                    }
+                    final int available = history.snapshot().getUndoCount();
+                    if (steps > available && target == null && available == 0) {
+                        return ExecutionResult.NOTHING_TO_UNDO;
+                    }
+                    if (steps > available) {
+                        throw new NoSuchElementException("Cannot undo " + steps + " commands, " + history.snapshot().getUndoCount() + " can be undone");
+                    }
+                    final ExecutionRecord latestRecord = this.latestRecord();
+                    this.deferNotifications = true;
+                    try {
+                        for (int i = 0; i < steps; i++) {
+                            final ExecutionResult result = this.undoStep(history, metrics);
+                            if (!result.isSuccess()) {
+                                return result;
+                            }
+                        }
+                        return ExecutionResult.SUCCESS;
+                    } finally {
+                        this.deferNotifications = false;
+                        this.notifyIfChanged(latestRecord);
+                    }
+                } finally {
+                    this.sizesChanged(metrics);
+                }
+            }
+        } finally {
+            parallelScheduler.exitExclusive(exclusive);
         }
     }
 
@@ -175,174 +671,742 @@ public class CommandDelegator{
      * @throws ExecutionException if redo does not execute successfully
      * @throws NoSuchExecutorException if there is no registered {@link Executor} for the {@link Command} to be redone
      */
-    public synchronized void redo() throws ExecutionException {
+    public void redo() throws ExecutionException {
+        this.redo(1);
+    }
+
+    /**
+     * Redos the next command, reporting a failure rather than throwing it, see {@link #redo()}
+     * @return the outcome, {@link ExecutionResult.Status#NOTHING_TO_REDO} if there is no {@link Command} to be redone
+     */
+    public ExecutionResult tryRedo() {
+        return this.redo(1, null);
+    }
 
-        final Command command = commands.next();
+    private ExecutionResult redoStep(final CommandHistory target, final DelegatorMetrics metrics) {
+        if (target == history) {
+            try {
+                this.checkJournal();
+            } catch (final IOException e) {
+                return ExecutionResult.failed(target.peekRedo(), e);
+            }
+        }
+        final Command command;
+        try {
+            command = target.redo();
+        } catch (final UncheckedIOException e) {
+            //a spilled command could not be read back, the history is unchanged
+            return ExecutionResult.failed(target.peekRedo(), e.getCause());
+        }
+        if (target == history) {
+            this.mergeTarget = null;
+        }
 
         try {
-            if (command instanceof UndoableCommand) {
-                final Executor executor = getExecutor(command);
+            if (CompositeCommand.isUndoable(command)) {
+                final Executor executor = this.findExecutor(command);
+                if (executor == null) {
+                    target.undo();
+                    return ExecutionResult.noExecutor(this.findUnresolved(command));
+                }
                 if (executor instanceof UndoableExecutor) {
                     final UndoableExecutor undoableExecutor = (UndoableExecutor) executor;
-                    //Unchecked call to unexecute()
-                    //doing this because can't determine type until runtime, will be correct
-                    //noinspection unchecked
-                    undoableExecutor.reexecute((UndoableCommand) command);
+                    final long started = metrics != DelegatorMetrics.NONE ? System.nanoTime() : 0L;
+                    try {
+                        //Unchecked call to unexecute()
+                        //doing this because can't determine type until runtime, will be correct
+                        //noinspection unchecked
+                        undoableExecutor.reexecute((UndoableCommand) command);
+                    } catch (final Exception e) {
+                        this.executed(metrics, command, ExecutionRecord.Operation.REDO, started, true);
+                        throw e;
+                    }
+                    this.executed(metrics, command, ExecutionRecord.Operation.REDO, started, false);
 
-                    this.addExecutionRecord(new ExecutionRecord(command, ExecutionRecord.Operation.REDO));
-                    return;
+                    this.record(target, command, ExecutionRecord.Operation.REDO, HistoryTransition.REDO);
+                    return ExecutionResult.SUCCESS;
                 }
             }
-            commands.previous();
+            target.undo();
         } catch (NoSuchExecutorException e) {
-            commands.previous();
-            throw e;
+            target.undo();
+            return ExecutionResult.noExecutor(e.getCommand());
         } catch (Exception e) {
             //Undo rolling history back
-            this.clearRedoHistory();
-            throw new ExecutionException(e);
+            target.clearRedo();
+            if (target == history) {
+                this.journal(HistoryTransition.REDO_FAILED, null);
+            }
+            return ExecutionResult.failed(command, e);
         }
+        return ExecutionResult.SUCCESS;
     }
 
-    public void redo(int count) throws ExecutionException {
+    /**
+     * Redoes several commands as one operation. The delegator is locked once for all of the steps, so no other operation can interleave,
+     * and listeners are notified once, of the latest record before and after the steps. If a step fails, the steps before it remain redone.
+     * To redo up to an entry of {@link #getRedoNames(int)}, pass its index plus one
+     * @param count The number of commands to redo
+     * @throws IndexOutOfBoundsException if {@code count} is less than 0
+     * @throws NoSuchElementException if fewer than {@code count} commands can be redone, in which case nothing is redone
+     * @throws ExecutionException if a step does not execute successfully
+     * @throws NoSuchExecutorException if there is no registered {@link Executor} for a {@link Command} to be redone
+     */
+    public void redo(final int count) throws ExecutionException {
         if (count < 0)
         {
             throw new IndexOutOfBoundsException("Index out of range: " + count);
         }
+        this.redo(count, null).throwIfFailed(captureStackTraces);
+    }
 
-        for (int i = 0; i < count; i++) {
-            redo();
+    /**
+     * Redoes commands until the command of the given record has been redone, as one operation, see {@link #redo(int)}
+     * @param record A record of a command that can be redone
+     * @throws NoSuchElementException if the command of the record cannot be redone, in which case nothing is redone
+     * @throws ExecutionException if a step does not execute successfully
+     * @throws NoSuchExecutorException if there is no registered {@link Executor} for a {@link Command} to be redone
+     */
+    public void redoTo(final ExecutionRecord record) throws ExecutionException {
+        Objects.requireNonNull(record, "record cannot be null");
+        this.redo(0, record.getCommand()).throwIfFailed(captureStackTraces);
+    }
+
+    /**
+     * @param count The number of steps, ignored if there is a target
+     * @param target The command to stop after, or null to take {@code count} steps
+     * @return the outcome of the first step that did not succeed, or success
+     * @throws NoSuchElementException if the target, or {@code count} commands when some can be redone, cannot be redone
+     */
+    private ExecutionResult redo(final int count, final Command target) {
+        final DelegatorMetrics metrics = this.currentMetrics();
+        final long requested = metrics != DelegatorMetrics.NONE ? System.nanoTime() : 0L;
+        final int exclusive = parallelScheduler.enterExclusive();
+        try {
+            synchronized (this) {
+                this.lockAcquired(metrics, requested);
+                try {
+                    final int steps = target == null ? count : history.redoDepth(target);
+                    if (steps < 0) {
+                        throw new NoSuchElementException("The command cannot be redone: " + target.getName());
+                    }
+                    final int available = history.snapshot().getRedoCount();
+                    if (steps > available && target == null && available == 0) {
+                        return ExecutionResult.NOTHING_TO_REDO;
+                    }
+                    if (steps > available) {
+                        throw new NoSuchElementException("Cannot redo " + steps + " commands, " + history.snapshot().getRedoCount() + " can be redone");
+                    }
+                    final ExecutionRecord latestRecord = this.latestRecord();
+                    this.deferNotifications = true;
+                    try {
+                        for (int i = 0; i < steps; i++) {
+                            final ExecutionResult result = this.redoStep(history, metrics);
+                            if (!result.isSuccess()) {
+                                return result;
+                            }
+                        }
+                        return ExecutionResult.SUCCESS;
+                    } finally {
+                        this.deferNotifications = false;
+                        this.notifyIfChanged(latestRecord);
+                    }
+                } finally {
+                    this.sizesChanged(metrics);
+                }
+            }
+        } finally {
+            parallelScheduler.exitExclusive(exclusive);
         }
     }
 
     private void clearUndoHistory()
     {
-        while (commands.hasPrevious()) {
-            commands.previous();
-            commands.remove();
-        }
+        history.clearUndo();
     }
 
     private void clearRedoHistory()
     {
-        while (commands.hasNext()) {
-            commands.next();
-            commands.remove();
+        history.clearRedo();
+    }
+
+    /**
+     * Replays the journal to rebuild the history and records of this delegator, without invoking any executors.
+     * The journal is replayed into a copy of this delegator with the same {@link HistoryPolicy} and record retention,
+     * which replaces the history and records of this delegator only once every entry has been replayed, so a journal that
+     * cannot be replayed leaves this delegator unchanged. Listeners are notified once. The journal does not record the policy,
+     * so it must be set before the journal is attached, to the policy the journal was written under, and cannot be changed while attached.
+     * <p>
+     * Every later change to the history is then appended to the journal, a published command being encoded once it has executed.
+     * A change that cannot be recorded fails with an {@link ExecutionException}, or a {@link ExecutionResult.Status#FAILED} result,
+     * caused by the {@link IOException}: if the journal is broken, before the change is made, and if a published command cannot be
+     * encoded, once the command has been unexecuted, where it can be undone, without changing the history. If the journal
+     * cannot be written once a change has been made, the change still succeeds and the journal is broken, see {@link ExecutionJournal#getFailure()}
+     * </p>
+     * @param journal The journal to replay and append to
+     * @throws IOException if the journal cannot be read, a command in it cannot be decoded, or an entry cannot be replayed
+     * @throws IllegalStateException if a journal is already attached, or this delegator already has history or records
+     */
+    public synchronized void attachJournal(final ExecutionJournal journal) throws IOException {
+        Objects.requireNonNull(journal, "journal cannot be null");
+        if (this.journal != null) {
+            throw new IllegalStateException("A journal is already attached");
+        }
+        final HistorySnapshot snapshot = history.snapshot();
+        if (snapshot.getUndoCount() > 0 || snapshot.getRedoCount() > 0 || this.latestRecord() != null) {
+            throw new IllegalStateException("A journal can only be attached to a delegator without history");
         }
+        final CommandDelegator scratch = new CommandDelegator(executors, codecs);
+        scratch.history.setPolicy(history.getPolicy());
+        scratch.setExecutionRecordRetention(this.getExecutionRecordRetention());
+        journal.replay(scratch);
+        this.restore(scratch.captureState());
+        this.journal = journal;
     }
 
     /**
-     * @return true if there is a command that can be undone
+     * Stops appending changes to the attached journal, the journal is not closed
+     * @return the journal that was attached, or null if there was none
      */
-    public boolean canUndo() {
-        //Check if there is a previous command, that is undoable
-        if (commands.hasPrevious()) {
-            final Command previous = commands.previous();
-            commands.next(); //revert position of ListIterator
-            return previous instanceof UndoableCommand;
+    public synchronized ExecutionJournal detachJournal() {
+        final ExecutionJournal detached = this.journal;
+        this.journal = null;
+        return detached;
+    }
+
+    /**
+     * Starts replicating every later change to the history and records of this delegator to a {@link ReplicationFollower}.
+     * A snapshot of the current state is sent first, then the changes are sent in batches in the background, see {@link ReplicationStream}.
+     * Keyed histories are not replicated
+     * @param stream The stream to send changes to
+     * @throws IllegalStateException if a stream is already attached, or the stream has been attached before
+     * @throws UncheckedIOException if a command cannot be encoded, or a spilled command cannot be read back
+     */
+    public synchronized void attachReplication(final ReplicationStream stream) {
+        Objects.requireNonNull(stream, "stream cannot be null");
+        if (this.replication != null) {
+            throw new IllegalStateException("A replication stream is already attached");
         }
-        return false;
+        //encoded while locked, as a later merge changes the commands of the state and is then sent as a change of its own
+        final byte[] snapshot;
+        try {
+            snapshot = this.captureState().toByteArray(codecs);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        stream.start(snapshot, codecs);
+        this.replication = stream;
     }
 
     /**
-     * @return true if there is a command that can be redone
+     * Stops sending changes to the attached replication stream, the stream is not closed
+     * @return the stream that was attached, or null if there was none
      */
-    public boolean canRedo() {
-        if (commands.hasNext()) {
-            final Command next = commands.next();
-            commands.previous(); //Revert position of ListIterator
-            return next instanceof UndoableCommand;
+    public synchronized ReplicationStream detachReplication() {
+        final ReplicationStream detached = this.replication;
+        this.replication = null;
+        return detached;
+    }
+
+    /**
+     * Writes the undo/redo history, execution records and sequence number of this delegator in a compact binary format,
+     * which can be loaded by {@link #importSnapshot(InputStream)}. Commands are stored using the {@link CodecRegistry} of this
+     * delegator, so must have a {@link CommandCodec} or be {@link java.io.Serializable}. The state is encoded while the delegator is locked,
+     * so the snapshot is consistent even if commands are merged or spilled commands released afterwards, and the delegator is not locked
+     * while the encoded snapshot is written to the stream
+     * @param out The stream to write to, it is flushed but not closed
+     * @throws IOException if a command cannot be encoded, or the stream cannot be written
+     */
+    public void exportSnapshot(final OutputStream out) throws IOException {
+        final byte[] encoded;
+        synchronized (this) {
+            encoded = this.captureState().toByteArray(codecs);
         }
-        return false;
+        out.write(encoded);
+        out.flush();
     }
 
     /**
-     * @return the name of the command that would be the result of calling the {@link #undo()} method, returns null if no command can be undone
+     * Replaces the undo/redo history, execution records and sequence number of this delegator with a snapshot written by
+     * {@link #exportSnapshot(OutputStream)}, without invoking any executors. The history is trimmed to the current {@link HistoryPolicy},
+     * and the records to the current retention. Listeners are notified once
+     * @param in The stream to read from, it is not closed
+     * @throws IOException if the stream is not a snapshot, or a command cannot be decoded
+     * @throws IllegalStateException if a journal or replication stream is attached
      */
-    public String getUndoName() {
-        if (canUndo()) {
-            commands.previous();
-            return commands.next().getName();
+    public void importSnapshot(final InputStream in) throws IOException {
+        this.importSnapshot(DelegatorState.readFrom(in, codecs));
+    }
+
+    /**
+     * @param state The state to replace the history, records and sequence number of this delegator with
+     * @throws IllegalStateException if a journal or replication stream is attached
+     */
+    void importSnapshot(final DelegatorState state) {
+        synchronized (this) {
+            if (journal != null) {
+                throw new IllegalStateException("A snapshot cannot be imported while a journal is attached");
+            }
+            if (replication != null) {
+                throw new IllegalStateException("A snapshot cannot be imported while a replication stream is attached");
+            }
+            this.restore(state);
         }
+    }
 
-        return null;
+    /**
+     * Replaces the history, records and sequence number of this delegator, notifying listeners once. Must hold the lock of the delegator
+     * @param state The state to restore
+     */
+    private void restore(final DelegatorState state) {
+        history.restore(state.getUndo(), state.getRedo());
+        final ExecutionRecord latestRecord;
+        final ExecutionRecord newRecord;
+        synchronized (recordLock) {
+            latestRecord = executionLog.latest();
+            executionLog.clear();
+            final ExecutionRecord[] records = state.getRecords();
+            for (int i = records.length - 1; i >= 0; i--) {
+                executionLog.add(records[i]);
+            }
+            this.sequence = state.getSequence();
+            newRecord = executionLog.latest();
+            notifyListeners(latestRecord, newRecord);
+        }
+        this.mergeTarget = null;
     }
 
-    public List<String> getUndoNames(int count) {
-        List<String> results = new ArrayList<>(count);
-        int steps = 0;
+    /**
+     * @return the history, records and sequence number of this delegator, must hold the lock of the delegator
+     */
+    private DelegatorState captureState() {
+        final HistorySnapshot snapshot = history.snapshot();
+        synchronized (recordLock) {
+            return new DelegatorState(sequence, snapshot.undoCommands(), snapshot.redoCommands(), executionLog.latest(executionLog.size()));
+        }
+    }
 
-        while (steps < count && commands.hasPrevious()) {
-            results.add(commands.previous().getName());
-            steps++;
+    /**
+     * Checks the attached journal can record a change, before the change is made
+     * @throws IOException if the journal is broken or closed
+     */
+    private void checkJournal() throws IOException {
+        final ExecutionJournal current = this.journal;
+        if (current != null) {
+            current.checkUsable();
         }
+    }
 
-        while (steps > 0) {
-            commands.next();
-            steps--;
+    /**
+     * Stages a published command in the attached journal once it has executed, so the entry holds any state the executor stored on it.
+     * Must hold the lock of the delegator, and be followed by {@link #journal(HistoryTransition, ExecutionRecord)}
+     * @param command The command that was published
+     * @throws IOException if the journal is broken or closed, or the command cannot be encoded
+     */
+    private void stageJournal(final Command command) throws IOException {
+        if (journal != null) {
+            journal.stage(command, codecs);
         }
+    }
 
-        return results;
+    /**
+     * Reverts a published command that cannot be recorded, by unexecuting it if it can be undone
+     * @param executor The executor that executed the command
+     * @param command The command to revert
+     * @param cause Why the command cannot be recorded, to which a failure to unexecute is added
+     */
+    private void revert(final Executor executor, final Command command, final IOException cause) {
+        if (executor instanceof UndoableExecutor && CompositeCommand.isUndoable(command)) {
+            try {
+                //Unchecked call to unexecute()
+                //doing this because can't determine type until runtime, will be correct
+                //noinspection unchecked
+                ((UndoableExecutor) executor).unexecute((UndoableCommand) command);
+            } catch (final Exception e) {
+                cause.addSuppressed(e);
+            }
+        }
     }
 
     /**
-     * @return the name of the command that would be the result of calling the {@link #redo()} method, returns null if no command can be redone,
+     * Appends a change to the attached journal and replication stream, if there are any. The change has already been made,
+     * so if the journal cannot be written it is left broken, and the next change fails before it is made
+     * @param transition The change made to the history
+     * @param record The record of the change, or null if the change has no record
      */
-    public String getRedoName() {
-        if (canRedo()) {
-            commands.next();
-            return commands.previous().getName();
+    private void journal(final HistoryTransition transition, final ExecutionRecord record) {
+        if (replication != null) {
+            replication.append(transition, record);
+        }
+        final ExecutionJournal current = this.journal;
+        if (current != null) {
+            try {
+                current.append(transition, record, codecs);
+            } catch (final IOException e) {
+                //NOOP, the journal keeps the failure, see ExecutionJournal#getFailure()
+            }
+        }
+    }
+
+    /**
+     * Applies a change to the history and records without invoking any executors, used to rebuild a delegator
+     * @param transition The change made to the history
+     * @param command The published command, or null if the transition does not publish a command
+     * @param sequence The sequence number of the record of the change
+     * @param timestamp The timestamp of the record of the change
+     * @param nanoTime The nano time of the record of the change
+     */
+    synchronized void replay(final HistoryTransition transition, Command command, final long sequence, final long timestamp, final long nanoTime) {
+        switch (transition) {
+            case PUBLISH_RECORDED:
+                this.clearRedoHistory();
+                if (!CompositeCommand.isUndoable(command)) {
+                    this.clearUndoHistory();
+                }
+                history.push(command);
+                break;
+            case PUBLISH_MERGED:
+                this.clearRedoHistory();
+                if (!history.mergeIntoTop(command)) {
+                    history.push(command);
+                }
+                break;
+            case UNDO:
+                command = history.undo();
+                break;
+            case REDO:
+                command = history.redo();
+                break;
+            case UNDO_FAILED:
+                history.undo();
+                this.clearUndoHistory();
+                break;
+            case REDO_FAILED:
+                history.redo();
+                this.clearRedoHistory();
+                break;
+            default:
+                break;
+        }
+        this.mergeTarget = null;
+        if (transition.getOperation() != null) {
+            final ExecutionRecord latestRecord;
+            final ExecutionRecord newRecord = new ExecutionRecord(command, transition.getOperation(), sequence, timestamp, nanoTime);
+            synchronized (recordLock) {
+                latestRecord = executionLog.latest();
+                this.sequence = Math.max(this.sequence, sequence);
+                executionLog.add(newRecord);
+                notifyListeners(latestRecord, newRecord);
+            }
+        }
+    }
+
+    /**
+     * Merges a newly published command into the top of the undo history, if the top was published within the merge window
+     * and is a {@link MergeableCommand} that accepts it
+     * @param command The published command
+     * @param now The current time in milliseconds
+     * @return true if the command was merged
+     */
+    private boolean merge(final Command command, final long now) {
+        return mergeTarget != null
+                && mergeTarget == history.peekUndo()
+                && now - mergeTargetTime <= mergeWindow
+                && history.mergeIntoTop(command);
+    }
+
+    /**
+     * Sets how soon after the previous publish a command must be published to be merged into it, see {@link MergeableCommand}.
+     * By default there is no limit
+     * @param window The maximum time between publishes
+     * @param unit The unit of {@code window}
+     * @throws IllegalArgumentException if {@code window} is negative
+     */
+    public synchronized void setMergeWindow(final long window, final TimeUnit unit) {
+        if (window < 0) {
+            throw new IllegalArgumentException("window cannot be negative: " + window);
+        }
+        this.mergeWindow = unit.toMillis(window);
+    }
+
+    /**
+     * Sets the policy limiting the size of the undo/redo history. If the current history exceeds the new policy the oldest commands are discarded
+     * @param policy The policy to apply, see {@link HistoryPolicy#unbounded()} for the default
+     * @throws IllegalStateException if a journal is attached, as the journal does not record the policy its history was trimmed by
+     */
+    public synchronized void setHistoryPolicy(final HistoryPolicy policy) {
+        if (journal != null) {
+            throw new IllegalStateException("The history policy cannot be changed while a journal is attached");
+        }
+        history.setPolicy(policy);
+    }
+
+    public synchronized HistoryPolicy getHistoryPolicy() {
+        return history.getPolicy();
+    }
+
+    /**
+     * Keeps only the most recent commands of the undo and redo history on the heap. Older commands are encoded to memory-mapped
+     * spill files, and read back when undo or redo reaches them, so a deep history fits in a small heap. Spilled commands are stored
+     * using the {@link CodecRegistry} of this delegator, commands which can not be encoded are kept on the heap. Spilled commands are read
+     * back as copies, so {@link #undoTo(ExecutionRecord)} and {@link #redoTo(ExecutionRecord)} only reach commands still on the heap.
+     * Keyed histories are never spilled
+     * @param directory The directory to create the spill files in, or null to read every spilled command back and stop spilling
+     * @param liveDepth The number of commands of each of the undo and redo history to keep on the heap
+     * @throws IOException if the spill files cannot be created, or the previous spill files cannot be read back or closed
+     * @throws IllegalArgumentException if {@code liveDepth} is negative
+     */
+    public synchronized void setHistorySpill(final Path directory, final int liveDepth) throws IOException {
+        if (liveDepth < 0) {
+            throw new IllegalArgumentException("liveDepth cannot be negative: " + liveDepth);
+        }
+        SpillFile undo = null;
+        SpillFile redo = null;
+        try {
+            if (directory != null) {
+                undo = new SpillFile(directory, "undo", codecs);
+                redo = new SpillFile(directory, "redo", codecs);
+            }
+            history.setSpill(undo, redo, liveDepth);
+        } catch (final IOException | UncheckedIOException e) {
+            if (undo != null) {
+                undo.close();
+            }
+            if (redo != null) {
+                redo.close();
+            }
+            throw e instanceof UncheckedIOException ? ((UncheckedIOException) e).getCause() : (IOException) e;
+        }
+    }
+
+    /**
+     * Gets the undo/redo history kept for a key, creating it if there is none. Each key has its own history and lock, independent
+     * of the main history of this delegator and of every other key, see {@link KeyedHistory}
+     * @param key The key of the history, compared with {@link Object#equals(Object)}
+     * @return the history of the key
+     */
+    public KeyedHistory getKeyedHistory(final Object key) {
+        Objects.requireNonNull(key, "key cannot be null");
+        final KeyedHistory existing = keyedHistories.get(key);
+        return existing != null ? existing : keyedHistories.computeIfAbsent(key, k -> new KeyedHistory(k, this, keyedHistoryPolicy));
+    }
+
+    /**
+     * Forgets the history kept for a key. The removed history can still be used, but is no longer returned by {@link #getKeyedHistory(Object)}
+     * @param key The key of the history
+     * @return the removed history, or null if there was none
+     */
+    public KeyedHistory removeKeyedHistory(final Object key) {
+        return keyedHistories.remove(key);
+    }
+
+    /**
+     * @return a live, unmodifiable, view of the keys with a history
+     */
+    public Set<Object> getKeyedHistoryKeys() {
+        return Collections.unmodifiableSet(keyedHistories.keySet());
+    }
+
+    /**
+     * Sets the policy of keyed histories created from now on, by default {@link HistoryPolicy#unbounded()}.
+     * See {@link KeyedHistory#setPolicy(HistoryPolicy)} to change the policy of an existing history
+     * @param policy The policy of new keyed histories
+     */
+    public void setKeyedHistoryPolicy(final HistoryPolicy policy) {
+        this.keyedHistoryPolicy = Objects.requireNonNull(policy, "policy cannot be null");
+    }
+
+    public HistoryPolicy getKeyedHistoryPolicy() {
+        return keyedHistoryPolicy;
+    }
+
+    void publishKeyed(final KeyedHistory keyed, final Command command) throws ExecutionException {
+        final DelegatorMetrics metrics = this.currentMetrics();
+        final long requested = metrics != DelegatorMetrics.NONE ? System.nanoTime() : 0L;
+        synchronized (keyed) {
+            this.lockAcquired(metrics, requested);
+            final CommandHistory target = keyed.history;
+            final Executor executor = getExecutor(command);
+            target.clearRedo();
+            if (!CompositeCommand.isUndoable(command)) {
+                target.clearUndo();
+            }
+
+            final long started = metrics != DelegatorMetrics.NONE ? System.nanoTime() : 0L;
+            try {
+                //Unchecked call to execute()
+                //doing this because can't determine type until runtime, will be correct
+                //noinspection unchecked
+                executor.execute(command);
+            } catch (Exception e) {
+                this.executed(metrics, command, ExecutionRecord.Operation.DO, started, true);
+                throw new ExecutionException(e.getMessage(), e, captureStackTraces);
+            }
+            this.executed(metrics, command, ExecutionRecord.Operation.DO, started, false);
+
+            target.push(command);
+            this.record(target, command, ExecutionRecord.Operation.DO, HistoryTransition.PUBLISH_RECORDED);
+        }
+    }
+
+    void undoKeyed(final KeyedHistory keyed) throws ExecutionException {
+        final DelegatorMetrics metrics = this.currentMetrics();
+        final long requested = metrics != DelegatorMetrics.NONE ? System.nanoTime() : 0L;
+        synchronized (keyed) {
+            this.lockAcquired(metrics, requested);
+            this.undoStep(keyed.history, metrics).throwIfFailed(captureStackTraces);
+        }
+    }
+
+    void redoKeyed(final KeyedHistory keyed) throws ExecutionException {
+        final DelegatorMetrics metrics = this.currentMetrics();
+        final long requested = metrics != DelegatorMetrics.NONE ? System.nanoTime() : 0L;
+        synchronized (keyed) {
+            this.lockAcquired(metrics, requested);
+            this.redoStep(keyed.history, metrics).throwIfFailed(captureStackTraces);
         }
+    }
+
+    /**
+     * Gets an immutable snapshot of the undo/redo history, as of its latest change.
+     * This never locks the delegator, so is suitable for frequent queries such as refreshing a user interface
+     * @return the latest snapshot of the history
+     */
+    public HistorySnapshot getHistorySnapshot() {
+        return history.snapshot();
+    }
+
+    /**
+     * @return true if there is a command that can be undone
+     */
+    public boolean canUndo() {
+        return history.snapshot().canUndo();
+    }
+
+    /**
+     * @return true if there is a command that can be redone
+     */
+    public boolean canRedo() {
+        return history.snapshot().canRedo();
+    }
+
+    /**
+     * @return the name of the command that would be the result of calling the {@link #undo()} method, returns null if no command can be undone
+     */
+    public String getUndoName() {
+        return history.snapshot().getUndoName();
+    }
+
+    public List<String> getUndoNames(int count) {
+        return history.snapshot().getUndoNames(count);
+    }
 
-        return null;
+    /**
+     * @return the name of the command that would be the result of calling the {@link #redo()} method, returns null if no command can be redone,
+     */
+    public String getRedoName() {
+        return history.snapshot().getRedoName();
     }
 
     public List<String> getRedoNames(int count) {
-        List<String> results = new ArrayList<>(count);
-        int steps = 0;
+        return history.snapshot().getRedoNames(count);
+    }
 
-        while (steps < count && commands.hasNext()) {
-            results.add(commands.next().getName());
-            steps++;
+    /**
+     * Records an operation, and appends it to the journal if it changed the history of this delegator.
+     * Operations on keyed histories are not performed under the lock of the delegator, and only take the record lock
+     * @param target The history the operation changed
+     * @param command The command the operation was performed on
+     * @param operation The operation performed
+     * @param transition The change made to the history
+     */
+    private void record(final CommandHistory target, final Command command, final ExecutionRecord.Operation operation,
+                        final HistoryTransition transition) {
+        if (target == history) {
+            final ExecutionRecord executionRecord = this.addExecutionRecord(command, operation, !deferNotifications);
+            this.journal(transition, executionRecord);
+        } else {
+            this.addExecutionRecord(command, operation, true);
         }
+    }
 
-        while (steps > 0) {
-            commands.previous();
-            steps--;
+    /**
+     * Creates a record with the next sequence number of this delegator, and adds it to the log of previously performed commands,
+     * overwriting the oldest record if the log is full. Listeners are notified while the record lock is held, so in sequence order
+     * @param command The command the operation was performed on
+     * @param operation The operation performed
+     * @param notify whether to notify listeners, false while notifications are deferred
+     * @return the new record
+     */
+    private ExecutionRecord addExecutionRecord(final Command command, final ExecutionRecord.Operation operation, final boolean notify) {
+        final ExecutionRecord latestRecord;
+        final ExecutionRecord newRecord;
+        synchronized (recordLock) {
+            latestRecord = executionLog.latest();
+            newRecord = new ExecutionRecord(command, operation, ++sequence, System.currentTimeMillis(), recordNanoTime ? System.nanoTime() : 0);
+            executionLog.add(newRecord);
+            if (notify) {
+                notifyListeners(latestRecord, newRecord);
+            }
         }
+        return newRecord;
+    }
 
-        return results;
+    /**
+     * @return the latest record, or null if there is none
+     */
+    private ExecutionRecord latestRecord() {
+        synchronized (recordLock) {
+            return executionLog.latest();
+        }
     }
 
     /**
-     * Adds a new {@link ExecutionRecord} to the list of previously performed commands. Notifies any listeners of {@link CommandDelegator}
-     * @param newRecord The ExecutionRecord to add
-     * @return true if the record is successfully added, false otherwise
+     * Notifies listeners once for the records added while notifications were deferred, if any were
+     * @param latestRecord The latest record before notifications were deferred, or null if there was none
      */
-    private boolean addExecutionRecord(final ExecutionRecord newRecord) {
-        final ExecutionRecord latestRecord = executionRecords.isEmpty() ? null : executionRecords.first();
+    private void notifyIfChanged(final ExecutionRecord latestRecord) {
+        synchronized (recordLock) {
+            final ExecutionRecord newRecord = executionLog.latest();
+            if (newRecord != null && (latestRecord == null || newRecord.getSequence() != latestRecord.getSequence())) {
+                notifyListeners(latestRecord, newRecord);
+            }
+        }
+    }
 
-        if (executionRecords.add(newRecord)) {
-            notifyListeners(latestRecord, newRecord);
-            return true;
+    /**
+     * Sets the number of {@link ExecutionRecord}s retained, the oldest records are discarded once this is exceeded
+     * @param retention The maximum number of records to retain
+     * @throws IllegalArgumentException if {@code retention} is less than 1
+     */
+    public void setExecutionRecordRetention(final int retention) {
+        synchronized (recordLock) {
+            executionLog.setCapacity(retention);
         }
+    }
 
-        return false;
+    public int getExecutionRecordRetention() {
+        synchronized (recordLock) {
+            return executionLog.capacity();
+        }
     }
 
     public Optional<ExecutionRecord> getLatestExecutionRecord() {
-        return executionRecords.isEmpty() ? Optional.empty() : Optional.of(executionRecords.first());
+        return Optional.ofNullable(this.latestRecord());
     }
 
+    /**
+     * @return an unmodifiable SortedSet containing all retained records
+     */
     public SortedSet<ExecutionRecord> getExecutionRecords() {
-        return new TreeSet<>(executionRecords);
+        return this.getExecutionRecords(Integer.MAX_VALUE);
     }
 
     /**
      * Gets the {@code X} most recent records where x is the value of count parameter.
      *
      * @param count the number of ExecutionRecords to return
-     * @return a new SortedSet containing the requested records
+     * @return an unmodifiable SortedSet containing the requested records
      * @throws IndexOutOfBoundsException if {@code count} is less than 0
      */
     public SortedSet<ExecutionRecord> getExecutionRecords(final int count) {
@@ -350,12 +1414,39 @@ public class CommandDelegator{
         {
             throw new IndexOutOfBoundsException("Index out of range: " + count);
         }
-        final SortedSet<ExecutionRecord> result = new TreeSet<>();
-        final Iterator<ExecutionRecord> iterator = executionRecords.iterator();
-        for (int i = 0; i < count && iterator.hasNext(); i++) {
-            result.add(iterator.next());
+        //records are appended in sequence order, so the log is already in natural order
+        synchronized (recordLock) {
+            return new ExecutionRecordSet(executionLog.latest(count));
+        }
+    }
+
+    /**
+     * Queries the retained records without copying them. The records are read from the log as the stream is consumed, the stream
+     * sees none of the records added after this method returns, and ends early if the records it has yet to reach are discarded
+     * by the retention limit. Queries by command class or operation skip unrelated records, and queries by timestamp skip records
+     * outside the range, as long as records have been added in timestamp order
+     * @param query The records to select
+     * @return a sequential stream of the selected records, newest first
+     * @throws java.util.ConcurrentModificationException from the stream, if the records are cleared or the retention is changed while it is consumed
+     */
+    public Stream<ExecutionRecord> queryExecutionRecords(final ExecutionRecordQuery query) {
+        Objects.requireNonNull(query, "query cannot be null");
+        final Iterator<ExecutionRecord> iterator;
+        synchronized (recordLock) {
+            iterator = executionLog.query(query, recordLock);
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Sets whether new {@link ExecutionRecord}s are stamped with {@link System#nanoTime()}, disabled by default
+     * @param recordNanoTime true to record nano times
+     */
+    public void setRecordNanoTime(final boolean recordNanoTime) {
+        synchronized (recordLock) {
+            this.recordNanoTime = recordNanoTime;
         }
-        return result;
     }
 
     /**
@@ -371,10 +1462,77 @@ public class CommandDelegator{
         return this.listeners.remove(listener);
     }
 
+    /**
+     * Sets how events are delivered to listeners, by default {@link ListenerDispatcher#SYNCHRONOUS}.
+     * See {@link AsyncListenerDispatcher} to deliver events without holding up the delegator
+     * @param dispatcher The dispatcher to deliver events with
+     */
+    public void setListenerDispatcher(final ListenerDispatcher dispatcher) {
+        this.listenerDispatcher = Objects.requireNonNull(dispatcher, "dispatcher cannot be null");
+    }
+
+    public ListenerDispatcher getListenerDispatcher() {
+        return listenerDispatcher;
+    }
+
+    /**
+     * Sets where measurements of this delegator are reported, by default {@link DelegatorMetrics#NONE}.
+     * See {@link MetricsRecorder} for a recorder of per command latencies, lock waits and history size
+     * @param metrics The metrics to report to
+     */
+    public void setMetrics(final DelegatorMetrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics, "metrics cannot be null");
+    }
+
+    public DelegatorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the metrics to report an operation to, or {@link DelegatorMetrics#NONE} if they are disabled,
+     * so an operation is measured either completely or not at all
+     */
+    private DelegatorMetrics currentMetrics() {
+        final DelegatorMetrics current = this.metrics;
+        return current.isEnabled() ? current : DelegatorMetrics.NONE;
+    }
+
+    private void lockAcquired(final DelegatorMetrics metrics, final long requested) {
+        if (metrics != DelegatorMetrics.NONE) {
+            metrics.lockAcquired(System.nanoTime() - requested);
+        }
+    }
+
+    private void executed(final DelegatorMetrics metrics, final Command command, final ExecutionRecord.Operation operation,
+                          final long started, final boolean failed) {
+        if (metrics != DelegatorMetrics.NONE) {
+            metrics.executed(command.getClass(), operation, System.nanoTime() - started, failed);
+        }
+    }
+
+    private void sizesChanged(final DelegatorMetrics metrics) {
+        if (metrics != DelegatorMetrics.NONE) {
+            final HistorySnapshot snapshot = history.snapshot();
+            final int records;
+            synchronized (recordLock) {
+                records = executionLog.size();
+            }
+            metrics.sizesChanged(snapshot.getUndoCount(), snapshot.getRedoCount(), records);
+        }
+    }
+
     private void notifyListeners(final Object oldValue, final Object newValue) {
-        final PropertyChangeEvent event = new PropertyChangeEvent(this, "lastCommandStatus", oldValue, newValue);
-        for (final PropertyChangeListener listener : listeners) {
-            listener.propertyChange(event);
+        if (listeners.isEmpty()) {
+            return;
         }
+        listenerDispatcher.dispatch(new PropertyChangeEvent(this, "lastCommandStatus", oldValue, newValue), listeners);
+    }
+
+    /**
+     * A delegator operation that can be submitted to the async executor
+     */
+    @FunctionalInterface
+    private interface AsyncOperation {
+        void perform() throws ExecutionException;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,205 @@
+package com.logdyn;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * The undo and redo stacks of a {@link CommandDelegator}, bounded by a {@link HistoryPolicy}.
+ * Not thread safe, mutation must be guarded by the owning delegator. After each mutation an immutable {@link HistorySnapshot}
+ * is published, which can be read from any thread. The oldest commands of each stack can be spilled to disk, see {@link HistoryStack}.
+ */
+final class CommandHistory {
+
+    private final HistoryStack undoStack = new HistoryStack();
+    private final HistoryStack redoStack = new HistoryStack();
+    private HistoryPolicy policy = HistoryPolicy.unbounded();
+    private long bytes;
+    private volatile HistorySnapshot snapshot = HistorySnapshot.EMPTY;
+
+    HistoryPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Changes the policy, discarding the oldest history if it no longer fits
+     * @param policy The new policy
+     * @throws UncheckedIOException if the policy estimates the size of commands, and a spilled command cannot be read back
+     */
+    void setPolicy(final HistoryPolicy policy) {
+        Objects.requireNonNull(policy, "policy cannot be null");
+        this.bytes = undoStack.setPolicy(policy) + redoStack.setPolicy(policy);
+        this.policy = policy;
+        this.trim();
+        this.publish();
+    }
+
+    /**
+     * Starts spilling the oldest commands of each stack to memory-mapped files, or stops spilling and reads every spilled command back.
+     * The files previously spilled to are closed
+     * @param undo The file to spill the undo stack to, or null to stop spilling
+     * @param redo The file to spill the redo stack to, or null to stop spilling
+     * @param liveDepth The number of commands of each stack to keep live
+     * @throws IOException if a previous file cannot be closed
+     * @throws UncheckedIOException if a spilled command cannot be read back
+     */
+    void setSpill(final SpillFile undo, final SpillFile redo, final int liveDepth) throws IOException {
+        final SpillFile previousUndo = undoStack.setSpill(undo, liveDepth);
+        final SpillFile previousRedo = redoStack.setSpill(redo, liveDepth);
+        this.publish();
+        try {
+            if (previousUndo != null) {
+                previousUndo.close();
+            }
+        } finally {
+            if (previousRedo != null) {
+                previousRedo.close();
+            }
+        }
+    }
+
+    /**
+     * @return the latest snapshot of the history, safe to read from any thread
+     */
+    HistorySnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Adds a command to the top of the undo stack, discarding the oldest history if the policy is exceeded
+     * @param command The command to add
+     */
+    void push(final Command command) {
+        undoStack.push(command);
+        bytes += policy.estimateSize(command);
+        this.trim();
+        this.publish();
+    }
+
+    /**
+     * Merges a command into the top of the undo stack, if the top is a {@link MergeableCommand} that accepts it
+     * @param command The command to merge
+     * @return true if the command was merged
+     */
+    boolean mergeIntoTop(final Command command) {
+        final Command top = undoStack.peek();
+        if (!(top instanceof MergeableCommand)) {
+            return false;
+        }
+        final long size = policy.estimateSize(top);
+        if (!((MergeableCommand) top).merge(command)) {
+            return false;
+        }
+        bytes += policy.estimateSize(top) - size;
+        this.trim();
+        this.publish();
+        return true;
+    }
+
+    /**
+     * Moves the top of the undo stack onto the redo stack
+     * @return the moved command
+     * @throws NoSuchElementException if there is no command to be undone
+     * @throws UncheckedIOException if the command was spilled and cannot be read back, in which case it is not moved
+     */
+    Command undo() {
+        final Command command = undoStack.pop();
+        redoStack.push(command);
+        this.publish();
+        return command;
+    }
+
+    /**
+     * Moves the top of the redo stack onto the undo stack
+     * @return the moved command
+     * @throws NoSuchElementException if there is no command to be redone
+     * @throws UncheckedIOException if the command was spilled and cannot be read back, in which case it is not moved
+     */
+    Command redo() {
+        final Command command = redoStack.pop();
+        undoStack.push(command);
+        this.publish();
+        return command;
+    }
+
+    /**
+     * @return the command that would be undone next, a {@link SpilledCommand} if it was spilled, or null if there is none
+     */
+    Command peekUndo() {
+        return undoStack.peek();
+    }
+
+    /**
+     * @return the command that would be redone next, a {@link SpilledCommand} if it was spilled, or null if there is none
+     */
+    Command peekRedo() {
+        return redoStack.peek();
+    }
+
+    /**
+     * @param command A command in the undo stack
+     * @return the number of commands to undo for the command to be undone, or -1 if it is not live in the undo stack
+     */
+    int undoDepth(final Command command) {
+        return undoStack.depth(command);
+    }
+
+    /**
+     * @param command A command in the redo stack
+     * @return the number of commands to redo for the command to be redone, or -1 if it is not live in the redo stack
+     */
+    int redoDepth(final Command command) {
+        return redoStack.depth(command);
+    }
+
+    void clearUndo() {
+        bytes -= undoStack.clear();
+        this.publish();
+    }
+
+    void clearRedo() {
+        bytes -= redoStack.clear();
+        this.publish();
+    }
+
+    /**
+     * Replaces the history, discarding the oldest of the given history if it does not fit the policy
+     * @param undo The commands to undo, oldest first
+     * @param redo The commands to redo, furthest first
+     */
+    void restore(final Collection<? extends Command> undo, final Collection<? extends Command> redo) {
+        undoStack.clear();
+        redoStack.clear();
+        for (final Command command : undo) {
+            undoStack.push(command);
+        }
+        for (final Command command : redo) {
+            redoStack.push(command);
+        }
+        //recalculates the size of the history and trims it
+        this.setPolicy(policy);
+    }
+
+    /**
+     * Discards the oldest undo entries, then the furthest redo entries, until the history fits the policy.
+     * Each discard is a constant time removal from the bottom of a stack.
+     */
+    private void trim() {
+        while (undoStack.size() + redoStack.size() > policy.getMaxDepth() || bytes > policy.getMaxBytes()) {
+            final long evicted = undoStack.size() == 0 ? redoStack.evictOldest() : undoStack.evictOldest();
+            if (evicted < 0) {
+                return;
+            }
+            bytes -= evicted;
+        }
+    }
+
+    /**
+     * Publishes a snapshot of the current history
+     */
+    private void publish() {
+        final HistorySnapshot.Node undoChain = undoStack.publish();
+        final HistorySnapshot.Node redoChain = redoStack.publish();
+        snapshot = new HistorySnapshot(undoChain, undoStack.size(), redoChain, redoStack.size());
+    }
+}
@@ -0,0 +1,44 @@
+package com.logdyn;
+
+import java.io.*;
+
+/**
+ * Converts commands to and from bytes for persistence, using Java serialization
+ */
+final class CommandSerializer {
+
+    private CommandSerializer() {}
+
+    /**
+     * @param command The command to serialize
+     * @return the serialized command
+     * @throws NotSerializableException if the command, or an object it references, is not {@link Serializable}
+     * @throws IOException if the command cannot be serialized
+     */
+    static byte[] serialize(final Command command) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(command);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes The buffer holding the serialized command
+     * @param offset The offset of the serialized command in the buffer
+     * @param length The length of the serialized command
+     * @return the deserialized command
+     * @throws IOException if the command cannot be deserialized
+     */
+    static Command deserialize(final byte[] bytes, final int offset, final int length) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes, offset, length))) {
+            final Object command = in.readObject();
+            if (!(command instanceof Command)) {
+                throw new InvalidObjectException("Not a command: " + command);
+            }
+            return (Command) command;
+        } catch (final ClassNotFoundException e) {
+            throw new InvalidClassException(e.getMessage());
+        }
+    }
+}
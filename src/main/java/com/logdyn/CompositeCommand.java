@@ -0,0 +1,79 @@
+package com.logdyn;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A batch of commands executed, undone and redone as a single unit, see {@link CommandDelegator#publishAll(String, Collection)}.
+ * A composite is only undoable if all of its commands are undoable. A composite is stored by the {@link CodecRegistry} itself,
+ * so can be journaled, exported and spilled whenever its commands can.
+ */
+public final class CompositeCommand implements UndoableCommand {
+
+    private final String name;
+    private final List<Command> commands;
+    private final boolean undoable;
+
+    /**
+     * @param name The name of the batch
+     * @param commands The commands in the batch, in execution order
+     * @throws IllegalArgumentException if {@code commands} is empty
+     */
+    public CompositeCommand(final String name, final Collection<? extends Command> commands) {
+        Objects.requireNonNull(commands, "commands cannot be null");
+        if (commands.isEmpty()) {
+            throw new IllegalArgumentException("commands cannot be empty");
+        }
+        final List<Command> copy = new ArrayList<>(commands);
+        boolean allUndoable = true;
+        for (final Command command : copy) {
+            Objects.requireNonNull(command, "commands cannot contain null");
+            allUndoable &= CompositeCommand.isUndoable(command);
+        }
+        this.name = name;
+        this.commands = Collections.unmodifiableList(copy);
+        this.undoable = allUndoable;
+    }
+
+    /**
+     * @param commands The commands in the batch, in execution order
+     */
+    public CompositeCommand(final Collection<? extends Command> commands) {
+        this(commands.size() + " commands", commands);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return an unmodifiable list of the commands in the batch, in execution order
+     */
+    public List<Command> getCommands() {
+        return commands;
+    }
+
+    /**
+     * @return true if every command in the batch is undoable
+     */
+    public boolean isUndoable() {
+        return undoable;
+    }
+
+    /**
+     * @param command The command to check
+     * @return true if the command is an {@link UndoableCommand}, and if it is a composite, all of its commands are undoable.
+     * A spilled command is undoable if the command it stands in for is
+     */
+    static boolean isUndoable(final Command command) {
+        if (command instanceof SpilledCommand) {
+            return ((SpilledCommand) command).isUndoable();
+        }
+        return command instanceof UndoableCommand
+                && (!(command instanceof CompositeCommand) || ((CompositeCommand) command).undoable);
+    }
+}
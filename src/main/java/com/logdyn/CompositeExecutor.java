@@ -0,0 +1,122 @@
+package com.logdyn;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Executes the commands of a {@link CompositeCommand} with their own executors. If a command fails, the commands of the batch
+ * already performed are reverted so the batch is applied entirely or not at all. Commands whose executor is not an
+ * {@link UndoableExecutor} can not be reverted, and are skipped when undoing.
+ */
+final class CompositeExecutor implements UndoableExecutor<CompositeCommand> {
+
+    private final Function<Command, Executor> resolver;
+
+    /**
+     * @param resolver Resolves the executor of each command in a batch
+     */
+    CompositeExecutor(final Function<Command, Executor> resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Resolves the executor of each command in a batch
+     * @param command The batch
+     * @return the executor of each command, in the same order as the commands
+     * @throws NoSuchExecutorException if there is no registered {@link Executor} for a command in the batch
+     */
+    Executor[] resolve(final CompositeCommand command) {
+        final List<Command> commands = command.getCommands();
+        final Executor[] executors = new Executor[commands.size()];
+        for (int i = 0; i < executors.length; i++) {
+            executors[i] = resolver.apply(commands.get(i));
+        }
+        return executors;
+    }
+
+    @Override
+    public void execute(final CompositeCommand command) throws Exception {
+        final List<Command> commands = command.getCommands();
+        final Executor[] executors = this.resolve(command);
+        for (int i = 0; i < executors.length; i++) {
+            try {
+                //Unchecked call to execute()
+                //noinspection unchecked
+                executors[i].execute(commands.get(i));
+            } catch (final Exception e) {
+                unexecute(commands, executors, i - 1, 0, e);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void unexecute(final CompositeCommand command) throws Exception {
+        final List<Command> commands = command.getCommands();
+        final Executor[] executors = this.resolve(command);
+        for (int i = executors.length - 1; i >= 0; i--) {
+            try {
+                unexecute(executors[i], commands.get(i));
+            } catch (final Exception e) {
+                reexecute(commands, executors, i + 1, executors.length - 1, e);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void reexecute(final CompositeCommand command) throws Exception {
+        final List<Command> commands = command.getCommands();
+        final Executor[] executors = this.resolve(command);
+        for (int i = 0; i < executors.length; i++) {
+            try {
+                reexecute(executors[i], commands.get(i));
+            } catch (final Exception e) {
+                unexecute(commands, executors, i - 1, 0, e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Reverts the commands from index {@code from} down to index {@code to}, adding any failure to {@code cause}
+     */
+    private static void unexecute(final List<Command> commands, final Executor[] executors, final int from, final int to, final Exception cause) {
+        for (int i = from; i >= to; i--) {
+            try {
+                unexecute(executors[i], commands.get(i));
+            } catch (final Exception e) {
+                cause.addSuppressed(e);
+            }
+        }
+    }
+
+    /**
+     * Reapplies the commands from index {@code from} up to index {@code to}, adding any failure to {@code cause}
+     */
+    private static void reexecute(final List<Command> commands, final Executor[] executors, final int from, final int to, final Exception cause) {
+        for (int i = from; i <= to; i++) {
+            try {
+                reexecute(executors[i], commands.get(i));
+            } catch (final Exception e) {
+                cause.addSuppressed(e);
+            }
+        }
+    }
+
+    private static void unexecute(final Executor executor, final Command command) throws Exception {
+        if (command instanceof UndoableCommand && executor instanceof UndoableExecutor) {
+            //Unchecked call to unexecute()
+            //noinspection unchecked
+            ((UndoableExecutor) executor).unexecute((UndoableCommand) command);
+        }
+    }
+
+    private static void reexecute(final Executor executor, final Command command) throws Exception {
+        if (command instanceof UndoableCommand && executor instanceof UndoableExecutor) {
+            //Unchecked call to reexecute()
+            //noinspection unchecked
+            ((UndoableExecutor) executor).reexecute((UndoableCommand) command);
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.logdyn;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs tasks on a pool of workers, at the same time as other tasks unless they share a key. Tasks sharing a key run one at a time,
+ * in the order they were submitted. A task without keys is exclusive, it runs alone after every task submitted before it, as does
+ * the caller of {@link #enterExclusive()}.
+ * <p>
+ * Submissions are grouped into stages, a batch of keyed tasks or a single exclusive task or caller, and each stage starts once the
+ * stage before it has finished. Within a batch, each key has a queue of the tasks using it, and a task starts once it is at the head
+ * of the queue of each of its keys.
+ * </p>
+ * <p>
+ * While no task is in flight, {@link #enterExclusive()} only updates a counter, without locking or creating a stage, so callers
+ * that never submit tasks pay almost nothing. A task submitted while such callers hold exclusive access queues behind a barrier
+ * stage, which the last of them releases on exit.
+ * </p>
+ * <p>
+ * A caller waiting in {@link #enterExclusive()} runs the tasks ahead of it that the workers have not started yet, rather than only
+ * waiting for them, so it cannot deadlock when it is itself a worker of the pool the tasks were handed to.
+ * </p>
+ */
+final class ConflictScheduler {
+
+    /**
+     * Returned by {@link #enterExclusive()} when the caller proceeds without exclusive access of its own
+     */
+    static final int NOT_ENTERED = 0;
+    /**
+     * Returned by {@link #enterExclusive()} when exclusive access was acquired while no task was in flight
+     */
+    static final int ENTERED_IDLE = 1;
+    /**
+     * Returned by {@link #enterExclusive()} when exclusive access was acquired by queueing a stage
+     */
+    static final int ENTERED = 2;
+
+    private final Deque<Stage> stages = new ArrayDeque<>();
+    private final Map<Object, Deque<Task>> queues = new HashMap<>();
+    //the tasks handed to the workers and not yet started, oldest first, which a waiting caller may run instead
+    private final Deque<Task> unstarted = new ArrayDeque<>();
+    //the number of callers waiting in enterExclusive
+    private int waiting;
+    //set on the threads running an admitted task or holding exclusive access, so nested calls do not wait on themselves
+    private final ThreadLocal<Boolean> admitted = new ThreadLocal<>();
+    //whether the calling thread is already inside an operation holding exclusive access, only asked when tasks are in flight
+    private final BooleanSupplier nested;
+    //the tasks submitted and not yet finished
+    private final AtomicInteger inFlight = new AtomicInteger();
+    //the callers holding exclusive access acquired while no task was in flight
+    private final AtomicInteger idleHolders = new AtomicInteger();
+    //the barrier holding back tasks until the idle holders exit, guarded by this
+    private Stage barrier;
+    private volatile boolean barrierPending;
+    private volatile java.util.concurrent.Executor workers;
+
+    /**
+     * @param workers The pool to run tasks on
+     * @param nested Whether the calling thread is already inside an operation holding exclusive access, so must not wait for it
+     */
+    ConflictScheduler(final java.util.concurrent.Executor workers, final BooleanSupplier nested) {
+        this.setWorkers(workers);
+        this.nested = nested;
+    }
+
+    java.util.concurrent.Executor getWorkers() {
+        return workers;
+    }
+
+    void setWorkers(final java.util.concurrent.Executor workers) {
+        this.workers = Objects.requireNonNull(workers, "workers cannot be null");
+    }
+
+    /**
+     * Queues a task
+     * @param keys The keys of the task, or null if the task is exclusive
+     * @param body The work of the task
+     * @param future Completed exceptionally if the workers reject the task, otherwise completing it is left to the body
+     */
+    void submit(final Collection<?> keys, final Runnable body, final CompletableFuture<?> future) {
+        final Task task = new Task(keys == null ? null : new ArrayList<>(new LinkedHashSet<>(keys)), body, future);
+        final List<Task> ready = new ArrayList<>(1);
+        //published before idle holders are checked, and checked by them after they are published, so one sees the other
+        inFlight.incrementAndGet();
+        synchronized (this) {
+            if (barrier == null && idleHolders.get() > 0) {
+                this.barrier = new Stage(null);
+                barrier.isBarrier = true;
+                stages.addLast(barrier);
+                this.barrierPending = true;
+                if (idleHolders.get() == 0) {
+                    this.releaseBarrier(ready);
+                }
+            }
+            final Stage tail = stages.peekLast();
+            if (task.keys != null && tail != null && tail.isBatch()) {
+                tail.add(task, tail == stages.peekFirst(), ready);
+            } else {
+                final Stage stage = new Stage(task.keys == null ? task : null);
+                stages.addLast(stage);
+                if (task.keys != null) {
+                    stage.add(task, stage == stages.peekFirst(), ready);
+                } else if (stage == stages.peekFirst()) {
+                    ready.add(task);
+                }
+            }
+        }
+        this.start(ready);
+    }
+
+    /**
+     * Waits until every task submitted before this call has finished, then holds back every task submitted afterwards
+     * until {@link #exitExclusive(int)} is called
+     * @return how exclusive access was acquired, to be passed to {@link #exitExclusive(int)}. {@link #NOT_ENTERED} if the calling
+     * thread is running a task or already has exclusive access, in which case it proceeds without waiting
+     */
+    int enterExclusive() {
+        if (inFlight.get() == 0) {
+            idleHolders.incrementAndGet();
+            if (inFlight.get() == 0) {
+                return ENTERED_IDLE;
+            }
+            this.exitIdle();
+        }
+        if (admitted.get() != null || nested.getAsBoolean()) {
+            return NOT_ENTERED;
+        }
+        boolean interrupted = false;
+        final Stage stage = new Stage(null);
+        synchronized (this) {
+            stages.addLast(stage);
+        }
+        while (true) {
+            final Task help;
+            synchronized (this) {
+                if (stages.peekFirst() == stage) {
+                    break;
+                }
+                help = unstarted.pollFirst();
+                if (help == null) {
+                    waiting++;
+                    try {
+                        this.wait();
+                    } catch (final InterruptedException e) {
+                        interrupted = true;
+                    } finally {
+                        waiting--;
+                    }
+                }
+            }
+            if (help != null) {
+                //the workers may be busy with this very thread, so run the task ahead rather than wait for them
+                this.run(help);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        admitted.set(Boolean.TRUE);
+        return ENTERED;
+    }
+
+    /**
+     * Releases exclusive access acquired by {@link #enterExclusive()}
+     * @param entered The value returned by {@link #enterExclusive()}
+     */
+    void exitExclusive(final int entered) {
+        if (entered == ENTERED_IDLE) {
+            this.exitIdle();
+        } else if (entered == ENTERED) {
+            this.exitQueued();
+        }
+    }
+
+    /**
+     * Releases exclusive access acquired while no task was in flight, releasing the barrier if this was the last such holder
+     */
+    private void exitIdle() {
+        //published before the barrier is checked, and checked by submit after it publishes the barrier, so one sees the other
+        if (idleHolders.decrementAndGet() == 0 && barrierPending) {
+            final List<Task> ready = new ArrayList<>();
+            synchronized (this) {
+                this.releaseBarrier(ready);
+            }
+            this.start(ready);
+        }
+    }
+
+    /**
+     * Removes the barrier if every idle holder has exited, or marks it to be removed once it reaches the head
+     * @param ready Receives the tasks that can start
+     */
+    private void releaseBarrier(final List<Task> ready) {
+        if (barrier == null || idleHolders.get() != 0) {
+            return;
+        }
+        barrier.released = true;
+        this.barrier = null;
+        this.barrierPending = false;
+        if (stages.peekFirst() != null && stages.peekFirst().released) {
+            this.promote(ready);
+        }
+    }
+
+    private void exitQueued() {
+        admitted.remove();
+        final List<Task> ready = new ArrayList<>();
+        synchronized (this) {
+            stages.removeFirst();
+            this.promote(ready);
+        }
+        this.start(ready);
+    }
+
+    private void start(final List<Task> ready) {
+        if (ready.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            unstarted.addAll(ready);
+            if (waiting > 0) {
+                this.notifyAll();
+            }
+        }
+        for (final Task task : ready) {
+            try {
+                workers.execute(() -> {
+                    if (this.claim(task)) {
+                        this.run(task);
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                if (this.claim(task)) {
+                    task.future.completeExceptionally(e);
+                    this.finish(task);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the task had not been started, by the workers or a waiting caller, and now has
+     */
+    private synchronized boolean claim(final Task task) {
+        //workers mostly start tasks in the order they were handed over, so the task is usually at the head
+        return unstarted.removeFirstOccurrence(task);
+    }
+
+    private void run(final Task task) {
+        admitted.set(Boolean.TRUE);
+        try {
+            task.body.run();
+        } finally {
+            admitted.remove();
+            this.finish(task);
+        }
+    }
+
+    /**
+     * Finishes a task, starting the tasks it held back
+     */
+    private void finish(final Task task) {
+        try {
+            this.dequeue(task);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void dequeue(final Task task) {
+        final List<Task> ready = new ArrayList<>();
+        synchronized (this) {
+            final Stage stage = stages.peekFirst();
+            if (task.keys == null) {
+                stages.removeFirst();
+                this.promote(ready);
+            } else {
+                for (final Object key : task.keys) {
+                    final Deque<Task> queue = queues.get(key);
+                    queue.removeFirst();
+                    final Task next = queue.peekFirst();
+                    if (next == null) {
+                        queues.remove(key);
+                    } else if (--next.blocked == 0) {
+                        ready.add(next);
+                    }
+                }
+                if (--stage.remaining == 0) {
+                    stages.removeFirst();
+                    this.promote(ready);
+                }
+            }
+        }
+        this.start(ready);
+    }
+
+    /**
+     * Starts the stage now at the head, after the previous head has finished, skipping any released barrier
+     * @param ready Receives the tasks that can start
+     */
+    private void promote(final List<Task> ready) {
+        Stage head = stages.peekFirst();
+        while (head != null && head.released) {
+            stages.removeFirst();
+            head = stages.peekFirst();
+        }
+        if (head == null || head.isBarrier) {
+            return;
+        }
+        if (head.isBatch()) {
+            for (final Task task : head.waiting) {
+                this.enqueue(task, ready);
+            }
+            head.waiting.clear();
+        } else if (head.exclusive != null) {
+            ready.add(head.exclusive);
+        } else {
+            //a caller waiting in enterExclusive
+            this.notifyAll();
+        }
+    }
+
+    private void enqueue(final Task task, final List<Task> ready) {
+        for (final Object key : task.keys) {
+            final Deque<Task> queue = queues.computeIfAbsent(key, k -> new ArrayDeque<>());
+            queue.addLast(task);
+            if (queue.size() > 1) {
+                task.blocked++;
+            }
+        }
+        if (task.blocked == 0) {
+            ready.add(task);
+        }
+    }
+
+    private static final class Task {
+        private final List<Object> keys;
+        private final Runnable body;
+        private final CompletableFuture<?> future;
+        //the number of keys this task is waiting for
+        private int blocked;
+
+        private Task(final List<Object> keys, final Runnable body, final CompletableFuture<?> future) {
+            this.keys = keys;
+            this.body = body;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Either a batch of keyed tasks, a single exclusive task, a caller with exclusive access, or a barrier for the callers
+     * that acquired exclusive access while no task was in flight
+     */
+    private final class Stage {
+        private final Task exclusive;
+        private final List<Task> waiting = new ArrayList<>();
+        private boolean batch;
+        private int remaining;
+        private boolean isBarrier;
+        //set once a barrier no longer holds back the stages after it
+        private boolean released;
+
+        private Stage(final Task exclusive) {
+            this.exclusive = exclusive;
+        }
+
+        private boolean isBatch() {
+            return batch;
+        }
+
+        private void add(final Task task, final boolean started, final List<Task> ready) {
+            batch = true;
+            remaining++;
+            if (started) {
+                ConflictScheduler.this.enqueue(task, ready);
+            } else {
+                waiting.add(task);
+            }
+        }
+    }
+}
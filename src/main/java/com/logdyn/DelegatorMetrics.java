@@ -0,0 +1,69 @@
+package com.logdyn;
+
+/**
+ * Receives measurements of the work done by a {@link CommandDelegator}, see {@link CommandDelegator#setMetrics(DelegatorMetrics)}
+ * and {@link MetricsRecorder} for the built-in implementation.
+ * <p>
+ * Every method is called on the thread performing the operation, the measurement methods while the delegator is locked,
+ * or for an operation on a {@link KeyedHistory} while that history is locked, so measurements of keyed histories and of the main
+ * history can arrive concurrently and out of order. Implementations should be quick, thread safe and must not call back into the delegator.
+ * </p>
+ */
+public interface DelegatorMetrics {
+
+    /**
+     * Discards every measurement. This is the default, and the delegator takes no measurements while it is used
+     */
+    DelegatorMetrics NONE = new DelegatorMetrics() {
+
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void lockAcquired(final long waitNanos) {
+            //NOOP
+        }
+
+        @Override
+        public void executed(final Class<? extends Command> commandClass, final ExecutionRecord.Operation operation,
+                             final long durationNanos, final boolean failed) {
+            //NOOP
+        }
+
+        @Override
+        public void sizesChanged(final int undoCount, final int redoCount, final int recordCount) {
+            //NOOP
+        }
+    };
+
+    /**
+     * Checked before each operation, while false the delegator does not read the clock or call any other method
+     * @return true if measurements should be taken
+     */
+    boolean isEnabled();
+
+    /**
+     * Called once a publish, undo or redo has locked the delegator
+     * @param waitNanos How long the caller waited for the lock
+     */
+    void lockAcquired(long waitNanos);
+
+    /**
+     * Called after an executor has executed, unexecuted or reexecuted a command
+     * @param commandClass The class of the command
+     * @param operation The operation performed
+     * @param durationNanos How long the executor took
+     * @param failed true if the executor threw an exception
+     */
+    void executed(Class<? extends Command> commandClass, ExecutionRecord.Operation operation, long durationNanos, boolean failed);
+
+    /**
+     * Called at the end of each publish, undo and redo
+     * @param undoCount The number of commands that can be undone
+     * @param redoCount The number of commands that can be redone
+     * @param recordCount The number of retained execution records
+     */
+    void sizesChanged(int undoCount, int redoCount, int recordCount);
+}
@@ -0,0 +1,209 @@
+package com.logdyn;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A consistent copy of the history and records of a {@link CommandDelegator}, and its binary format,
+ * see {@link CommandDelegator#exportSnapshot(OutputStream)}.
+ * <p>
+ * Each distinct command is written once, and the history and records refer to it by index, so a command shared
+ * between the history and records is still shared once the state is read back.
+ * </p>
+ */
+final class DelegatorState {
+
+    private static final int MAGIC = 0x52415331; //"RAS1"
+    private static final int VERSION = 1;
+    private static final ExecutionRecord.Operation[] OPERATIONS = ExecutionRecord.Operation.values();
+
+    private final long sequence;
+    private final List<Command> undo;
+    private final List<Command> redo;
+    private final ExecutionRecord[] records;
+
+    /**
+     * @param sequence The sequence number of the latest record
+     * @param undo The commands to undo, oldest first
+     * @param redo The commands to redo, furthest first
+     * @param records The retained records, newest first
+     */
+    DelegatorState(final long sequence, final List<Command> undo, final List<Command> redo, final ExecutionRecord[] records) {
+        this.sequence = sequence;
+        this.undo = undo;
+        this.redo = redo;
+        this.records = records;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    List<Command> getUndo() {
+        return undo;
+    }
+
+    List<Command> getRedo() {
+        return redo;
+    }
+
+    ExecutionRecord[] getRecords() {
+        return records;
+    }
+
+    /**
+     * Encodes the state, which must be done while the owning delegator is locked, as the commands are not copied
+     * and a later merge would change them
+     * @param codecs The codecs to encode commands with
+     * @return the state in the format written by {@link #writeTo(OutputStream, CodecRegistry)}
+     * @throws IOException if a command cannot be encoded
+     */
+    byte[] toByteArray(final CodecRegistry codecs) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        this.writeTo(out, codecs);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param out The stream to write to, it is not closed
+     * @param codecs The codecs to encode commands with
+     * @throws IOException if a command cannot be encoded, or the stream cannot be written
+     */
+    void writeTo(final OutputStream out, final CodecRegistry codecs) throws IOException {
+        final Map<Command, Integer> indexes = new IdentityHashMap<>();
+        final List<Command> commands = new ArrayList<>();
+        for (final Command command : undo) {
+            index(command, indexes, commands);
+        }
+        for (final Command command : redo) {
+            index(command, indexes, commands);
+        }
+        for (final ExecutionRecord record : records) {
+            index(record.getCommand(), indexes, commands);
+        }
+
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(sequence);
+
+        data.writeInt(commands.size());
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        for (final Command command : commands) {
+            if (command instanceof SpilledCommand) {
+                //a spilled command is already encoded
+                final byte[] bytes = ((SpilledCommand) command).bytes();
+                data.writeInt(bytes.length);
+                data.write(bytes);
+            } else {
+                buffer.clear();
+                buffer = codecs.encodeGrowing(command, buffer);
+                data.writeInt(buffer.position());
+                data.write(buffer.array(), 0, buffer.position());
+            }
+        }
+
+        writeIndexes(data, undo, indexes);
+        writeIndexes(data, redo, indexes);
+
+        data.writeInt(records.length);
+        for (final ExecutionRecord record : records) {
+            data.writeInt(indexes.get(record.getCommand()));
+            data.writeByte(record.getOperation().ordinal());
+            data.writeLong(record.getSequence());
+            data.writeLong(record.getTimestamp());
+            data.writeLong(record.getNanoTime());
+        }
+        data.flush();
+    }
+
+    /**
+     * @param in The stream to read from, it is not closed
+     * @param codecs The codecs to decode commands with
+     * @return the state read from the stream
+     * @throws IOException if the stream is not a snapshot, or a command cannot be decoded
+     */
+    static DelegatorState readFrom(final InputStream in, final CodecRegistry codecs) throws IOException {
+        return readFrom(in, codecs, true, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads a state from data that may not be trusted, see {@link #readFrom(InputStream, CodecRegistry)}
+     * @param in The stream to read from, it is not closed
+     * @param codecs The codecs to decode commands with
+     * @param allowSerialization Whether commands without a codec may be read using Java serialization
+     * @param maxLength The length of the snapshot, no count or length in it may be larger, so it cannot allocate more than it holds
+     * @return the state read from the stream
+     * @throws IOException if the stream is not a snapshot, a count is invalid, or a command cannot be decoded
+     */
+    static DelegatorState readFrom(final InputStream in, final CodecRegistry codecs, final boolean allowSerialization,
+                                   final long maxLength) throws IOException {
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a delegator snapshot");
+        }
+        final int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version: " + version);
+        }
+        final long sequence = data.readLong();
+
+        final Command[] commands = new Command[checkCount(data.readInt(), maxLength)];
+        for (int i = 0; i < commands.length; i++) {
+            final byte[] bytes = new byte[checkCount(data.readInt(), maxLength)];
+            data.readFully(bytes);
+            commands[i] = codecs.decode(ByteBuffer.wrap(bytes), allowSerialization);
+        }
+
+        final List<Command> undo = readIndexes(data, commands, maxLength);
+        final List<Command> redo = readIndexes(data, commands, maxLength);
+
+        final ExecutionRecord[] records = new ExecutionRecord[checkCount(data.readInt(), maxLength)];
+        for (int i = 0; i < records.length; i++) {
+            final Command command = command(commands, data.readInt());
+            final int operation = data.readUnsignedByte();
+            if (operation >= OPERATIONS.length) {
+                throw new IOException("Unknown operation: " + operation);
+            }
+            records[i] = new ExecutionRecord(command, OPERATIONS[operation], data.readLong(), data.readLong(), data.readLong());
+        }
+        return new DelegatorState(sequence, undo, redo, records);
+    }
+
+    private static void index(final Command command, final Map<Command, Integer> indexes, final List<Command> commands) {
+        if (!indexes.containsKey(command)) {
+            indexes.put(command, commands.size());
+            commands.add(command);
+        }
+    }
+
+    private static void writeIndexes(final DataOutputStream data, final List<Command> stack, final Map<Command, Integer> indexes) throws IOException {
+        data.writeInt(stack.size());
+        for (final Command command : stack) {
+            data.writeInt(indexes.get(command));
+        }
+    }
+
+    private static List<Command> readIndexes(final DataInputStream data, final Command[] commands, final long maxLength) throws IOException {
+        final Command[] stack = new Command[checkCount(data.readInt(), maxLength)];
+        for (int i = 0; i < stack.length; i++) {
+            stack[i] = command(commands, data.readInt());
+        }
+        return Arrays.asList(stack);
+    }
+
+    private static Command command(final Command[] commands, final int index) throws IOException {
+        if (index < 0 || index >= commands.length) {
+            throw new IOException("Invalid command index: " + index);
+        }
+        return commands[index];
+    }
+
+    private static int checkCount(final int count, final long maxLength) throws IOException {
+        if (count < 0 || count > maxLength) {
+            throw new IOException("Invalid count: " + count);
+        }
+        return count;
+    }
+}
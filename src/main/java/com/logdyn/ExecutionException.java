@@ -9,4 +9,13 @@ public class ExecutionException extends Exception {
     public ExecutionException(Throwable cause) {
         super(cause.getMessage(), cause);
     }
+
+    /**
+     * @param message The detail message
+     * @param cause The cause of the failure
+     * @param writableStackTrace whether a stack trace is captured, skipping it makes expected failures cheaper to create
+     */
+    public ExecutionException(String message, Throwable cause, boolean writableStackTrace) {
+        super(message, cause, true, writableStackTrace);
+    }
 }
@@ -0,0 +1,343 @@
+package com.logdyn;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file recording every change to the history of a {@link CommandDelegator}, so the undo/redo history survives
+ * a restart, see {@link CommandDelegator#attachJournal(ExecutionJournal)}. Published commands are stored using the
+ * {@link CodecRegistry} of the delegator, so must have a {@link CommandCodec} or be {@link java.io.Serializable}.
+ * <p>
+ * Entries are buffered in memory and written and forced to disk together once every {@code syncInterval} entries, when
+ * {@link #sync()} is called, and when the journal is closed. A crash may therefore lose up to {@code syncInterval - 1} of the
+ * latest entries. An entry that was only partially written is discarded when the journal is next replayed.
+ * </p>
+ * <p>
+ * The command of a publish is encoded into the journal once it has executed, so it holds any state its executor stored on it,
+ * but before the history is changed, so a command that cannot be stored fails without being recorded. If entries cannot be written, the journal is broken: it records no further entries, and every later change
+ * to the history of its delegator fails before it is made, see {@link #getFailure()}. The journal should then be detached and
+ * closed, and the delegator rebuilt from a new journal.
+ * </p>
+ */
+public class ExecutionJournal implements Closeable {
+
+    /**
+     * The number of entries written to disk together by default
+     */
+    public static final int DEFAULT_SYNC_INTERVAL = 64;
+
+    private static final int MAGIC = 0x52414a31; //"RAJ1"
+    private static final int HEADER_LENGTH = Integer.BYTES;
+    private static final int FRAME_HEADER_LENGTH = Integer.BYTES * 2;
+    private static final int FRAME_FIXED_LENGTH = 1 + Long.BYTES * 3;
+
+    private final FileChannel channel;
+    private final int syncInterval;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(8192);
+    private int pending;
+    //the start of the entry staged by stage(), or -1 if there is none
+    private int staged = -1;
+    private IOException failure;
+
+    /**
+     * Opens or creates a journal, writing entries to disk once every {@link #DEFAULT_SYNC_INTERVAL} entries
+     * @param path The journal file
+     * @throws IOException if the file cannot be opened, or is not a journal
+     */
+    public ExecutionJournal(final Path path) throws IOException {
+        this(path, DEFAULT_SYNC_INTERVAL);
+    }
+
+    /**
+     * Opens or creates a journal
+     * @param path The journal file
+     * @param syncInterval The number of entries written to disk together, 1 writes every entry as it happens
+     * @throws IOException if the file cannot be opened, or is not a journal
+     * @throws IllegalArgumentException if {@code syncInterval} is less than 1
+     */
+    public ExecutionJournal(final Path path, final int syncInterval) throws IOException {
+        if (syncInterval < 1) {
+            throw new IllegalArgumentException("syncInterval must be at least 1: " + syncInterval);
+        }
+        this.syncInterval = syncInterval;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC);
+                header.flip();
+                channel.write(header, 0);
+            } else {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                if (channel.read(header, 0) != HEADER_LENGTH || header.getInt(0) != MAGIC) {
+                    throw new IOException("Not an execution journal: " + path);
+                }
+            }
+            channel.position(channel.size());
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the failure that broke the journal, or null if it is not broken
+     */
+    public synchronized IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Checks a change can be recorded, before the change is made
+     * @throws IOException if the journal is broken or closed
+     */
+    synchronized void checkUsable() throws IOException {
+        if (failure != null) {
+            throw new IOException("The journal is broken", failure);
+        }
+        if (!channel.isOpen()) {
+            throw new IOException("The journal is closed");
+        }
+    }
+
+    /**
+     * Encodes the command of a publish once it has executed, before the history is changed, completed by the next {@link #append(HistoryTransition, ExecutionRecord, CodecRegistry)}
+     * or dropped by {@link #discard()}. Only one entry can be staged at a time
+     * @param command The command to be published
+     * @param codecs The codecs to encode the command with
+     * @throws IOException if the journal is broken or closed, or the command cannot be encoded, in which case nothing is staged
+     */
+    synchronized void stage(final Command command, final CodecRegistry codecs) throws IOException {
+        this.checkUsable();
+        this.discard();
+        this.staged = this.encodeEntry(command, codecs);
+    }
+
+    /**
+     * Drops the staged entry, if there is one
+     */
+    synchronized void discard() {
+        if (staged >= 0) {
+            buffer.position(staged);
+            this.staged = -1;
+        }
+    }
+
+    /**
+     * Appends an entry, completing the staged entry if the transition has a command, and writing it to disk if the sync interval
+     * has been reached
+     * @param transition The change made to the history
+     * @param record The record of the change, or null if the change has no record
+     * @param codecs The codecs to encode the command of the record with, if it was not staged
+     * @throws IOException if the journal is broken, the command cannot be encoded, or the entry cannot be written
+     */
+    synchronized void append(final HistoryTransition transition, final ExecutionRecord record, final CodecRegistry codecs) throws IOException {
+        this.checkUsable();
+        try {
+            this.appendEntry(transition, record, codecs);
+        } catch (final IOException e) {
+            //the change has been made, so the journal is now behind it
+            this.failure = e;
+            throw e;
+        } catch (final RuntimeException e) {
+            this.failure = new IOException("The entry could not be written", e);
+            throw failure;
+        }
+    }
+
+    private void appendEntry(final HistoryTransition transition, final ExecutionRecord record, final CodecRegistry codecs) throws IOException {
+        final int start;
+        if (transition.hasCommand() && staged >= 0) {
+            start = staged;
+            this.staged = -1;
+        } else {
+            this.discard();
+            start = this.encodeEntry(transition.hasCommand() ? record.getCommand() : null, codecs);
+        }
+        buffer.put(start + FRAME_HEADER_LENGTH, (byte) transition.ordinal());
+        buffer.putLong(start + FRAME_HEADER_LENGTH + 1, record == null ? 0 : record.getSequence());
+        buffer.putLong(start + FRAME_HEADER_LENGTH + 1 + Long.BYTES, record == null ? 0 : record.getTimestamp());
+        buffer.putLong(start + FRAME_HEADER_LENGTH + 1 + Long.BYTES * 2, record == null ? 0 : record.getNanoTime());
+
+        final int bodyLength = buffer.position() - start - FRAME_HEADER_LENGTH;
+        buffer.putInt(start, bodyLength);
+        crc.reset();
+        crc.update(buffer.array(), start + FRAME_HEADER_LENGTH, bodyLength);
+        buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+
+        if (++pending >= syncInterval) {
+            this.sync();
+        }
+    }
+
+    /**
+     * Writes an entry with its header and fixed fields left to be filled in
+     * @param command The command of the entry to encode, or null if it has none
+     * @return the start of the entry
+     * @throws IOException if the command cannot be encoded, in which case nothing is written
+     */
+    private int encodeEntry(final Command command, final CodecRegistry codecs) throws IOException {
+        while (true) {
+            this.ensureCapacity(FRAME_HEADER_LENGTH + FRAME_FIXED_LENGTH);
+            final int start = buffer.position();
+            try {
+                buffer.putInt(0); //body length, filled in once the body is written
+                buffer.putInt(0); //checksum, filled in once the body is written
+                buffer.position(buffer.position() + FRAME_FIXED_LENGTH); //transition and record, filled in once they are known
+                if (command != null) {
+                    //encoded in place, straight into the buffer
+                    codecs.encode(command, buffer);
+                }
+                return start;
+            } catch (final BufferOverflowException e) {
+                buffer.position(start);
+                //writes what is buffered, or grows the buffer if the entry is the only thing in it
+                this.ensureCapacity(buffer.remaining() + 1);
+            } catch (final IOException | RuntimeException e) {
+                //discards the partial entry
+                buffer.position(start);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes all buffered entries and forces them to disk. A staged entry is kept in the buffer
+     * @throws IOException if the entries cannot be written, in which case the journal is broken
+     */
+    public synchronized void sync() throws IOException {
+        if (failure != null) {
+            throw new IOException("The journal is broken", failure);
+        }
+        try {
+            this.write();
+            if (pending > 0) {
+                channel.force(false);
+                pending = 0;
+            }
+        } catch (final IOException e) {
+            this.failure = e;
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the complete entries in the buffer, moving a staged entry to the start of the buffer
+     */
+    private void write() throws IOException {
+        final int end = staged >= 0 ? staged : buffer.position();
+        if (end > 0) {
+            final ByteBuffer complete = buffer.duplicate();
+            complete.position(0);
+            complete.limit(end);
+            while (complete.hasRemaining()) {
+                channel.write(complete);
+            }
+            buffer.limit(buffer.position());
+            buffer.position(end);
+            buffer.compact();
+            if (staged >= 0) {
+                this.staged = 0;
+            }
+        }
+    }
+
+    /**
+     * Writes all buffered entries to disk and closes the journal
+     * @throws IOException if the entries cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            this.discard();
+            if (failure == null) {
+                this.sync();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Replays every entry of the journal into the delegator, then truncates any partially written entry at the end of the file
+     * @param delegator The delegator to rebuild
+     * @throws IOException if the journal cannot be read, a command cannot be decoded, or an entry cannot be applied to the delegator
+     */
+    synchronized void replay(final CommandDelegator delegator) throws IOException {
+        this.sync();
+        final long size = channel.size();
+        final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_LENGTH);
+        long position = HEADER_LENGTH;
+
+        while (position + FRAME_HEADER_LENGTH <= size) {
+            frameHeader.clear();
+            readFully(frameHeader, position);
+            final int bodyLength = frameHeader.getInt(0);
+            if (bodyLength < FRAME_FIXED_LENGTH || position + FRAME_HEADER_LENGTH + bodyLength > size) {
+                break;
+            }
+            final ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            readFully(body, position + FRAME_HEADER_LENGTH);
+            crc.reset();
+            crc.update(body.array(), 0, bodyLength);
+            if ((int) crc.getValue() != frameHeader.getInt(Integer.BYTES)) {
+                break;
+            }
+
+            final HistoryTransition transition;
+            try {
+                transition = HistoryTransition.valueOf(body.get(0));
+            } catch (final IllegalArgumentException e) {
+                throw new IOException("Malformed journal entry at " + position, e);
+            }
+            final long sequence = body.getLong(1);
+            final long timestamp = body.getLong(1 + Long.BYTES);
+            final long nanoTime = body.getLong(1 + Long.BYTES * 2);
+            body.position(FRAME_FIXED_LENGTH);
+            final Command command = transition.hasCommand() ? delegator.getCodecRegistry().decode(body) : null;
+            try {
+                delegator.replay(transition, command, sequence, timestamp, nanoTime);
+            } catch (final RuntimeException e) {
+                throw new IOException("The entry at " + position + " cannot be replayed, the history may be limited differently than when it was written", e);
+            }
+            position += FRAME_HEADER_LENGTH + bodyLength;
+        }
+
+        if (position < size) {
+            channel.truncate(position);
+        }
+        channel.position(position);
+    }
+
+    private void readFully(final ByteBuffer target, final long position) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new IOException("Unexpected end of journal");
+            }
+        }
+    }
+
+    private void ensureCapacity(final int length) throws IOException {
+        if (buffer.remaining() < length) {
+            //write what is buffered, without forcing, to make room
+            try {
+                this.write();
+            } catch (final IOException e) {
+                this.failure = e;
+                throw e;
+            }
+            if (buffer.remaining() < length) {
+                final ByteBuffer larger = ByteBuffer.allocate(Integer.highestOneBit(buffer.position() + length) << 1);
+                buffer.flip();
+                larger.put(buffer);
+                this.buffer = larger;
+            }
+        }
+    }
+}
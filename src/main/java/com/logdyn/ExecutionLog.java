@@ -0,0 +1,410 @@
+package com.logdyn;
+
+import java.util.*;
+
+/**
+ * A fixed capacity ring buffer of {@link ExecutionRecord}s. Once full, adding a record overwrites the oldest record.
+ * Not thread safe, access must be guarded by the record lock of the owning delegator.
+ * <p>
+ * Records are stored in columns of primitives, the sequence number, timestamp, nano time, operation and interned command class
+ * of each record, alongside a column of the commands themselves. An {@link ExecutionRecord} is only created when a record is read.
+ * The columns grow as records are added, up to the capacity of the log, and the nano time column is only allocated once a record
+ * has a nano time.
+ * </p>
+ * <p>
+ * Every record added is given a position, one more than the previous record. Alongside each record the log keeps the position
+ * of the previous record of the same command class, and of the same operation, so queries for either can skip unrelated records.
+ * Records with timestamps in position order are found by timestamp with a binary search.
+ * </p>
+ */
+final class ExecutionLog {
+
+    private static final int NONE = -1;
+    private static final int INITIAL_LENGTH = 16;
+    private static final ExecutionRecord.Operation[] OPERATIONS = ExecutionRecord.Operation.values();
+
+    private int capacity;
+    private Command[] commands;
+    private long[] sequences;
+    private long[] timestamps;
+    private long[] nanoTimes;
+    private byte[] operations;
+    private int[] types;
+    private long[] previousOfType;
+    private long[] previousOfOperation;
+
+    //interned command classes, an id is released once no retained record refers to it
+    private final Map<Class<?>, Integer> typeIds = new HashMap<>();
+    private Class<?>[] typeClasses;
+    private int[] typeCounts;
+    private long[] latestOfType;
+    private int[] freeTypeIds;
+    private int freeTypeIdCount;
+    private int typeIdLimit;
+
+    private final long[] latestOfOperation = new long[OPERATIONS.length];
+    private long next;
+    private int size;
+    private boolean timeOrdered = true;
+    private int generation;
+
+    /**
+     * @param capacity The maximum number of records retained
+     * @throws IllegalArgumentException if {@code capacity} is less than 1
+     */
+    ExecutionLog(final int capacity) {
+        this.allocate(checkCapacity(capacity));
+    }
+
+    /**
+     * Appends a record, overwriting the oldest record if the log is full
+     * @param record The record to append
+     */
+    void add(final ExecutionRecord record) {
+        if (size > 0 && record.getTimestamp() < timestamps[this.slot(next - 1)]) {
+            timeOrdered = false;
+        }
+        if (size == capacity) {
+            this.release(this.slot(this.oldest()));
+        } else if (size == commands.length) {
+            this.grow();
+        }
+
+        final long position = next++;
+        final int slot = this.slot(position);
+        commands[slot] = record.getCommand();
+        sequences[slot] = record.getSequence();
+        timestamps[slot] = record.getTimestamp();
+        if (record.getNanoTime() != 0 && nanoTimes == null) {
+            nanoTimes = new long[commands.length];
+        }
+        if (nanoTimes != null) {
+            nanoTimes[slot] = record.getNanoTime();
+        }
+
+        final int type = this.intern(record.getCommand().getClass());
+        types[slot] = type;
+        typeCounts[type]++;
+        previousOfType[slot] = latestOfType[type];
+        latestOfType[type] = position;
+
+        final int operation = record.getOperation().ordinal();
+        operations[slot] = (byte) operation;
+        previousOfOperation[slot] = latestOfOperation[operation];
+        latestOfOperation[operation] = position;
+
+        size++;
+    }
+
+    /**
+     * @return the most recently added record, or null if the log is empty
+     */
+    ExecutionRecord latest() {
+        return size == 0 ? null : this.record(this.slot(next - 1));
+    }
+
+    /**
+     * @param count The maximum number of records to return
+     * @return the {@code count} most recently added records, newest first
+     */
+    ExecutionRecord[] latest(final int count) {
+        final ExecutionRecord[] result = new ExecutionRecord[Math.min(count, size)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = this.record(this.slot(next - 1 - i));
+        }
+        return result;
+    }
+
+    /**
+     * Removes every record
+     */
+    void clear() {
+        this.allocate(capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Changes the capacity of the log, retaining the newest records that fit
+     * @param capacity The maximum number of records retained
+     * @throws IllegalArgumentException if {@code capacity} is less than 1
+     */
+    void setCapacity(final int capacity) {
+        final ExecutionRecord[] retained = this.latest(checkCapacity(capacity));
+        this.allocate(capacity);
+        for (int i = retained.length - 1; i >= 0; i--) {
+            this.add(retained[i]);
+        }
+    }
+
+    /**
+     * Starts a query of the records currently in the log. The query sees none of the records added after it starts,
+     * and ends early if the records it has yet to reach are overwritten
+     * @param query The records to select
+     * @param lock The lock guarding this log, held by the query while it reads the log
+     * @return an iterator over the selected records, newest first
+     */
+    Iterator<ExecutionRecord> query(final ExecutionRecordQuery query, final Object lock) {
+        return new QueryIterator(query, lock);
+    }
+
+    private void allocate(final int capacity) {
+        this.capacity = capacity;
+        final int length = Math.min(capacity, INITIAL_LENGTH);
+        this.commands = new Command[length];
+        this.sequences = new long[length];
+        this.timestamps = new long[length];
+        this.nanoTimes = null;
+        this.operations = new byte[length];
+        this.types = new int[length];
+        this.previousOfType = new long[length];
+        this.previousOfOperation = new long[length];
+
+        this.typeIds.clear();
+        this.typeClasses = new Class<?>[INITIAL_LENGTH];
+        this.typeCounts = new int[INITIAL_LENGTH];
+        this.latestOfType = new long[INITIAL_LENGTH];
+        this.freeTypeIds = new int[INITIAL_LENGTH];
+        this.freeTypeIdCount = 0;
+        this.typeIdLimit = 0;
+
+        Arrays.fill(latestOfOperation, NONE);
+        this.next = 0;
+        this.size = 0;
+        this.timeOrdered = true;
+        this.generation++;
+    }
+
+    /**
+     * Doubles the length of the columns, up to the capacity. Only called before the log is first full,
+     * when the position of each record is also its index
+     */
+    private void grow() {
+        final int length = (int) Math.min(capacity, commands.length * 2L);
+        commands = Arrays.copyOf(commands, length);
+        sequences = Arrays.copyOf(sequences, length);
+        timestamps = Arrays.copyOf(timestamps, length);
+        if (nanoTimes != null) {
+            nanoTimes = Arrays.copyOf(nanoTimes, length);
+        }
+        operations = Arrays.copyOf(operations, length);
+        types = Arrays.copyOf(types, length);
+        previousOfType = Arrays.copyOf(previousOfType, length);
+        previousOfOperation = Arrays.copyOf(previousOfOperation, length);
+    }
+
+    /**
+     * @param type A command class
+     * @return the id of the class, assigning it one if no retained record has that class
+     */
+    private int intern(final Class<?> type) {
+        final Integer existing = typeIds.get(type);
+        if (existing != null) {
+            return existing;
+        }
+        final int id;
+        if (freeTypeIdCount > 0) {
+            id = freeTypeIds[--freeTypeIdCount];
+        } else {
+            id = typeIdLimit++;
+            if (id == typeClasses.length) {
+                typeClasses = Arrays.copyOf(typeClasses, id * 2);
+                typeCounts = Arrays.copyOf(typeCounts, id * 2);
+                latestOfType = Arrays.copyOf(latestOfType, id * 2);
+            }
+        }
+        typeIds.put(type, id);
+        typeClasses[id] = type;
+        typeCounts[id] = 0;
+        latestOfType[id] = NONE;
+        return id;
+    }
+
+    /**
+     * Releases the record in a slot that is about to be overwritten, and the id of its class if no other record has that class
+     * @param slot The slot of the oldest record
+     */
+    private void release(final int slot) {
+        final int type = types[slot];
+        if (--typeCounts[type] == 0) {
+            typeIds.remove(typeClasses[type]);
+            typeClasses[type] = null;
+            if (freeTypeIdCount == freeTypeIds.length) {
+                freeTypeIds = Arrays.copyOf(freeTypeIds, freeTypeIdCount * 2);
+            }
+            freeTypeIds[freeTypeIdCount++] = type;
+        }
+        commands[slot] = null;
+        size--;
+    }
+
+    /**
+     * @param slot The slot of a retained record
+     * @return a new record holding the values of the slot
+     */
+    private ExecutionRecord record(final int slot) {
+        return new ExecutionRecord(commands[slot], OPERATIONS[operations[slot]], sequences[slot], timestamps[slot],
+                nanoTimes == null ? 0 : nanoTimes[slot]);
+    }
+
+    private long oldest() {
+        return next - size;
+    }
+
+    private boolean isRetained(final long position) {
+        return position >= this.oldest() && position < next;
+    }
+
+    private int slot(final long position) {
+        return (int) (position % capacity);
+    }
+
+    /**
+     * @param to The latest timestamp
+     * @return the position of the newest record with a timestamp no later than {@code to}, or the position before the oldest
+     * record if there is none. Only valid while the records are in timestamp order
+     */
+    private long newestAtOrBefore(final long to) {
+        long low = this.oldest();
+        long high = next - 1;
+        while (low <= high) {
+            final long middle = (low + high) >>> 1;
+            if (timestamps[this.slot(middle)] <= to) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    private static int checkCapacity(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        return capacity;
+    }
+
+    /**
+     * Walks the positions of the log newest first, following the chain of the queried classes or operation if there is one,
+     * and reads the log in batches so the lock is taken once per batch rather than once per record.
+     * Records are only created for the positions selected by the query
+     */
+    private final class QueryIterator implements Iterator<ExecutionRecord> {
+
+        private static final int BATCH_SIZE = 64;
+
+        private final ExecutionRecordQuery query;
+        private final Object lock;
+        private final int expectedGeneration;
+        private final boolean useTimeOrder;
+        //the next position of each followed chain, or of the whole log when no chain is followed
+        private final long[] positions;
+        private final boolean followTypes;
+        private final boolean followOperation;
+        private final long upper;
+
+        private final ExecutionRecord[] batch = new ExecutionRecord[BATCH_SIZE];
+        private int batchIndex;
+        private int batchSize;
+        private boolean exhausted;
+
+        QueryIterator(final ExecutionRecordQuery query, final Object lock) {
+            this.query = query;
+            this.lock = lock;
+            this.expectedGeneration = generation;
+            this.useTimeOrder = timeOrdered;
+            this.upper = useTimeOrder ? newestAtOrBefore(query.getTo()) : next - 1;
+
+            if (query.hasType()) {
+                this.followTypes = true;
+                this.followOperation = false;
+                this.positions = typeIds.entrySet().stream()
+                        .filter(entry -> query.getType().isAssignableFrom(entry.getKey()))
+                        .mapToLong(entry -> latestOfType[entry.getValue()])
+                        .toArray();
+            } else if (query.getOperation() != null) {
+                this.followTypes = false;
+                this.followOperation = true;
+                this.positions = new long[]{latestOfOperation[query.getOperation().ordinal()]};
+            } else {
+                this.followTypes = false;
+                this.followOperation = false;
+                this.positions = new long[]{upper};
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (batchIndex < batchSize) {
+                return true;
+            }
+            if (exhausted) {
+                return false;
+            }
+            synchronized (lock) {
+                this.fill();
+            }
+            return batchIndex < batchSize;
+        }
+
+        @Override
+        public ExecutionRecord next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final ExecutionRecord record = batch[batchIndex];
+            batch[batchIndex++] = null;
+            return record;
+        }
+
+        private void fill() {
+            if (generation != expectedGeneration) {
+                throw new ConcurrentModificationException("The execution log was cleared or resized during the query");
+            }
+            batchIndex = 0;
+            batchSize = 0;
+            while (batchSize < BATCH_SIZE) {
+                final int chain = this.newestChain();
+                final long position = chain == NONE ? NONE : positions[chain];
+                if (!isRetained(position)) {
+                    exhausted = true;
+                    return;
+                }
+                final int slot = slot(position);
+                positions[chain] = followTypes ? previousOfType[slot] : followOperation ? previousOfOperation[slot] : position - 1;
+
+                if (position > upper) {
+                    continue;
+                }
+                if (useTimeOrder && timestamps[slot] < query.getFrom()) {
+                    //every older record is earlier still
+                    exhausted = true;
+                    return;
+                }
+                if (query.matches(OPERATIONS[operations[slot]], timestamps[slot])) {
+                    batch[batchSize++] = record(slot);
+                }
+            }
+        }
+
+        /**
+         * @return the index of the chain whose next position is the newest still in the log, or {@link #NONE} if every chain has ended
+         */
+        private int newestChain() {
+            int newest = NONE;
+            for (int i = 0; i < positions.length; i++) {
+                if (isRetained(positions[i]) && (newest == NONE || positions[i] > positions[newest])) {
+                    newest = i;
+                }
+            }
+            return newest;
+        }
+    }
+}
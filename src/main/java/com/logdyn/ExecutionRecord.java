@@ -2,9 +2,17 @@ package com.logdyn;
 
 import java.util.Comparator;
 
+/**
+ * A record of a {@link Command} being executed, unexecuted or reexecuted.
+ * Records are ordered newest first, by sequence number and then by timestamp.
+ */
 public class ExecutionRecord implements Comparable<ExecutionRecord>{
+    private static final Comparator<String> NAME_COMPARATOR = Comparator.nullsFirst(Comparator.naturalOrder());
+
     private Command command;
+    private long sequence;
     private long timestamp;
+    private long nanoTime;
     private Operation operation;
 
     public ExecutionRecord(Command command, Operation operation) {
@@ -12,8 +20,21 @@ public class ExecutionRecord implements Comparable<ExecutionRecord>{
     }
 
     public ExecutionRecord(Command command, Operation operation, long timestamp) {
+        this(command, operation, 0, timestamp, 0);
+    }
+
+    /**
+     * @param command The command the operation was performed on
+     * @param operation The operation performed
+     * @param sequence The position of this record in the order of execution, must be unique for each record created by a delegator
+     * @param timestamp The time of the operation in milliseconds, see {@link System#currentTimeMillis()}
+     * @param nanoTime The time of the operation in nanoseconds, see {@link System#nanoTime()}, 0 if not recorded
+     */
+    public ExecutionRecord(Command command, Operation operation, long sequence, long timestamp, long nanoTime) {
         this.command = command;
+        this.sequence = sequence;
         this.timestamp = timestamp;
+        this.nanoTime = nanoTime;
         this.operation = operation;
     }
 
@@ -21,21 +42,38 @@ public class ExecutionRecord implements Comparable<ExecutionRecord>{
         return command;
     }
 
+    /**
+     * @return the position of this record in the order of execution of the delegator that created it
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
     public long getTimestamp() {
         return timestamp;
     }
 
+    /**
+     * @return the {@link System#nanoTime()} the record was created at, or 0 if the delegator was not recording nano times
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
     public Operation getOperation() {
         return operation;
     }
 
     @Override
     public int compareTo(ExecutionRecord o) {
-        int result = Long.compare(o.timestamp, this.timestamp);
+        int result = Long.compare(o.sequence, this.sequence);
         if (result == 0)
         {
-            final Comparator<String> comparator = Comparator.nullsFirst(Comparator.naturalOrder());
-            result = comparator.compare(o.command.getName(), this.command.getName());
+            result = Long.compare(o.timestamp, this.timestamp);
+        }
+        if (result == 0)
+        {
+            result = NAME_COMPARATOR.compare(o.command.getName(), this.command.getName());
         }
         if (result == 0)
         {
@@ -49,12 +87,22 @@ public class ExecutionRecord implements Comparable<ExecutionRecord>{
         if (obj == this) return true;
         if (!(obj instanceof ExecutionRecord)) return false;
         final ExecutionRecord other = (ExecutionRecord) obj;
-        return this.timestamp == other.timestamp
+        return this.sequence == other.sequence
+                && this.timestamp == other.timestamp
                 && this.command.equals(other.command)
                 && this.operation.equals(other.operation);
     }
 
-    enum Operation {
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(sequence);
+        result = 31 * result + Long.hashCode(timestamp);
+        result = 31 * result + command.hashCode();
+        result = 31 * result + operation.hashCode();
+        return result;
+    }
+
+    public enum Operation {
         DO,
         UNDO,
         REDO
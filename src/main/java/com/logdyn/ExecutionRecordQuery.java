@@ -0,0 +1,102 @@
+package com.logdyn;
+
+import java.util.Objects;
+
+/**
+ * Selects {@link ExecutionRecord}s by the class of their command, their operation and their timestamp,
+ * see {@link CommandDelegator#queryExecutionRecords(ExecutionRecordQuery)}. Queries are immutable, each refinement returns a new query.
+ *
+ * <pre>{@code
+ * ExecutionRecordQuery query = ExecutionRecordQuery.all()
+ *         .ofType(ExampleCommand.class)
+ *         .withOperation(ExecutionRecord.Operation.UNDO)
+ *         .between(start, end);
+ * }</pre>
+ */
+public final class ExecutionRecordQuery {
+
+    private static final ExecutionRecordQuery ALL = new ExecutionRecordQuery(Command.class, null, Long.MIN_VALUE, Long.MAX_VALUE);
+
+    private final Class<? extends Command> type;
+    private final ExecutionRecord.Operation operation;
+    private final long from;
+    private final long to;
+
+    private ExecutionRecordQuery(final Class<? extends Command> type, final ExecutionRecord.Operation operation, final long from, final long to) {
+        this.type = type;
+        this.operation = operation;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @return a query selecting every record
+     */
+    public static ExecutionRecordQuery all() {
+        return ALL;
+    }
+
+    /**
+     * @param type The class of command to select, including sub-classes
+     * @return a query that only selects records of commands of the given class
+     */
+    public ExecutionRecordQuery ofType(final Class<? extends Command> type) {
+        return new ExecutionRecordQuery(Objects.requireNonNull(type, "type cannot be null"), operation, from, to);
+    }
+
+    /**
+     * @param operation The operation to select
+     * @return a query that only selects records of the given operation
+     */
+    public ExecutionRecordQuery withOperation(final ExecutionRecord.Operation operation) {
+        return new ExecutionRecordQuery(type, Objects.requireNonNull(operation, "operation cannot be null"), from, to);
+    }
+
+    /**
+     * @param from The earliest timestamp to select, inclusive
+     * @param to The latest timestamp to select, inclusive
+     * @return a query that only selects records with a timestamp in the given range
+     * @throws IllegalArgumentException if {@code from} is after {@code to}
+     */
+    public ExecutionRecordQuery between(final long from, final long to) {
+        if (from > to) {
+            throw new IllegalArgumentException("from cannot be after to: " + from + " > " + to);
+        }
+        return new ExecutionRecordQuery(type, operation, from, to);
+    }
+
+    public Class<? extends Command> getType() {
+        return type;
+    }
+
+    /**
+     * @return the operation to select, or null if every operation is selected
+     */
+    public ExecutionRecord.Operation getOperation() {
+        return operation;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    /**
+     * @return true if this query selects records of a class more specific than {@link Command}
+     */
+    boolean hasType() {
+        return type != Command.class;
+    }
+
+    /**
+     * @param operation The operation of a record
+     * @param timestamp The timestamp of a record
+     * @return true if a record of the queried type, with the given operation and timestamp, is selected by this query
+     */
+    boolean matches(final ExecutionRecord.Operation operation, final long timestamp) {
+        return (this.operation == null || operation == this.operation) && timestamp >= from && timestamp <= to;
+    }
+}
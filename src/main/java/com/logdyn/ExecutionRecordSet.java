@@ -0,0 +1,123 @@
+package com.logdyn;
+
+import java.util.*;
+
+/**
+ * An unmodifiable {@link SortedSet} of {@link ExecutionRecord}s backed by an array that is already in natural order, newest first.
+ * Avoids building a tree when returning records from an {@link ExecutionLog}.
+ */
+final class ExecutionRecordSet extends AbstractSet<ExecutionRecord> implements SortedSet<ExecutionRecord> {
+
+    private final ExecutionRecord[] records;
+    private final int from;
+    private final int to;
+
+    /**
+     * @param records The records in natural order, the array must not be modified after construction
+     */
+    ExecutionRecordSet(final ExecutionRecord[] records) {
+        this(records, 0, records.length);
+    }
+
+    private ExecutionRecordSet(final ExecutionRecord[] records, final int from, final int to) {
+        this.records = records;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public Iterator<ExecutionRecord> iterator() {
+        return new Iterator<ExecutionRecord>() {
+            private int index = from;
+
+            @Override
+            public boolean hasNext() {
+                return index < to;
+            }
+
+            @Override
+            public ExecutionRecord next() {
+                if (index >= to) {
+                    throw new NoSuchElementException();
+                }
+                return records[index++];
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        if (!(o instanceof ExecutionRecord)) {
+            return false;
+        }
+        for (int i = lowerBound((ExecutionRecord) o); i < to && records[i].compareTo((ExecutionRecord) o) == 0; i++) {
+            if (records[i].equals(o)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Comparator<? super ExecutionRecord> comparator() {
+        return null;
+    }
+
+    @Override
+    public SortedSet<ExecutionRecord> subSet(final ExecutionRecord fromElement, final ExecutionRecord toElement) {
+        if (fromElement.compareTo(toElement) > 0) {
+            throw new IllegalArgumentException("fromElement > toElement");
+        }
+        return new ExecutionRecordSet(records, lowerBound(fromElement), lowerBound(toElement));
+    }
+
+    @Override
+    public SortedSet<ExecutionRecord> headSet(final ExecutionRecord toElement) {
+        return new ExecutionRecordSet(records, from, lowerBound(toElement));
+    }
+
+    @Override
+    public SortedSet<ExecutionRecord> tailSet(final ExecutionRecord fromElement) {
+        return new ExecutionRecordSet(records, lowerBound(fromElement), to);
+    }
+
+    @Override
+    public ExecutionRecord first() {
+        if (from == to) {
+            throw new NoSuchElementException();
+        }
+        return records[from];
+    }
+
+    @Override
+    public ExecutionRecord last() {
+        if (from == to) {
+            throw new NoSuchElementException();
+        }
+        return records[to - 1];
+    }
+
+    /**
+     * @param record The record to search for
+     * @return the index of the first record not less than the given record
+     */
+    private int lowerBound(final ExecutionRecord record) {
+        Objects.requireNonNull(record, "record cannot be null");
+        int low = from;
+        int high = to;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (records[mid].compareTo(record) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,129 @@
+package com.logdyn;
+
+import java.util.NoSuchElementException;
+
+/**
+ * The outcome of {@link CommandDelegator#tryPublish(Command)}, {@link CommandDelegator#tryUndo()} and {@link CommandDelegator#tryRedo()}.
+ * Expected failures are reported as a status rather than thrown, so no exception is created or unwound for them.
+ * Outcomes without a command or cause are shared instances.
+ */
+public final class ExecutionResult {
+
+    public enum Status {
+        /**
+         * The command executed successfully
+         */
+        SUCCESS,
+        /**
+         * The executor of the command threw, or the change could not be recorded in the attached {@link ExecutionJournal}
+         * or read back from the spilled history, see {@link #getCause()}
+         */
+        FAILED,
+        /**
+         * There is no registered {@link Executor} for the command, nothing was executed
+         */
+        NO_EXECUTOR,
+        /**
+         * There was no command to be undone
+         */
+        NOTHING_TO_UNDO,
+        /**
+         * There was no command to be redone
+         */
+        NOTHING_TO_REDO
+    }
+
+    static final ExecutionResult SUCCESS = new ExecutionResult(Status.SUCCESS, null, null);
+    static final ExecutionResult NOTHING_TO_UNDO = new ExecutionResult(Status.NOTHING_TO_UNDO, null, null);
+    static final ExecutionResult NOTHING_TO_REDO = new ExecutionResult(Status.NOTHING_TO_REDO, null, null);
+
+    private final Status status;
+    private final Command command;
+    private final Throwable cause;
+
+    private ExecutionResult(final Status status, final Command command, final Throwable cause) {
+        this.status = status;
+        this.command = command;
+        this.cause = cause;
+    }
+
+    /**
+     * @param command The command that failed
+     * @param cause What the executor threw, or the {@link java.io.IOException} that stopped the change
+     */
+    static ExecutionResult failed(final Command command, final Throwable cause) {
+        return new ExecutionResult(Status.FAILED, command, cause);
+    }
+
+    /**
+     * @param command The command with no registered executor, which may be a command of a batch
+     */
+    static ExecutionResult noExecutor(final Command command) {
+        return new ExecutionResult(Status.NO_EXECUTOR, command, null);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return true if the command executed successfully
+     */
+    public boolean isSuccess() {
+        return status == Status.SUCCESS;
+    }
+
+    /**
+     * @return the command that failed or has no registered executor, or null for any other status
+     */
+    public Command getCommand() {
+        return command;
+    }
+
+    /**
+     * @return what the executor threw, or the {@link java.io.IOException} that stopped the change, or null unless the status is {@link Status#FAILED}
+     */
+    public Throwable getCause() {
+        return cause;
+    }
+
+    /**
+     * Throws the exception the equivalent throwing method of {@link CommandDelegator} would have thrown
+     * @throws ExecutionException if the status is {@link Status#FAILED}
+     * @throws NoSuchExecutorException if the status is {@link Status#NO_EXECUTOR}
+     * @throws NoSuchElementException if the status is {@link Status#NOTHING_TO_UNDO} or {@link Status#NOTHING_TO_REDO}
+     */
+    public void throwIfFailed() throws ExecutionException {
+        this.throwIfFailed(true);
+    }
+
+    /**
+     * @param writableStackTrace whether the thrown exception captures a stack trace
+     */
+    void throwIfFailed(final boolean writableStackTrace) throws ExecutionException {
+        switch (status) {
+            case FAILED:
+                throw new ExecutionException(cause.getMessage(), cause, writableStackTrace);
+            case NO_EXECUTOR:
+                throw new NoSuchExecutorException(command, writableStackTrace);
+            case NOTHING_TO_UNDO:
+                throw new NoSuchElementException("There is no command to be undone");
+            case NOTHING_TO_REDO:
+                throw new NoSuchElementException("There is no command to be redone");
+            default:
+                //NOOP
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (status) {
+            case FAILED:
+                return status + ": " + command.getName() + ": " + cause;
+            case NO_EXECUTOR:
+                return status + ": " + command.getName();
+            default:
+                return status.toString();
+        }
+    }
+}
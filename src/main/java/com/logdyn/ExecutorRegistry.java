@@ -0,0 +1,182 @@
+package com.logdyn;
+
+import java.util.*;
+
+/**
+ * The executors subscribed to each class of command. A registry can be shared between several {@link CommandDelegator}s,
+ * each delegator keeping its own history, records and listeners.
+ * <p>
+ * The subscriptions are held in an immutable snapshot, which is copied and replaced whenever an executor is subscribed or
+ * unsubscribed. Looking up an executor never locks, so executors can be subscribed and unsubscribed while commands are published.
+ * </p>
+ */
+public class ExecutorRegistry {
+
+    private static final Comparator<Class<?>> HIERARCHY_ORDER = new ClassHierarchyComparator();
+
+    private volatile Subscriptions subscriptions = new Subscriptions(Collections.emptyMap());
+    private volatile java.util.concurrent.Executor multicastExecutor;
+
+    /**
+     * Subscribes an executor to listen for and execute any commands that are an instance of the specified class, or any sub-classes
+     * @param executor The executor for the command or sub-classes of the command
+     * @param clazz The class of the command
+     * @param <C> The type of the command the executor will handle
+     * @return Returns true if the executor is successfully subscribed, returns false if the an executor of the class or a parent class is already subscribed
+     */
+    public synchronized <C extends Command> boolean subscribe(final Executor<C> executor, final Class <C> clazz) {
+
+        Objects.requireNonNull(executor, "Executor cannot be null");
+        Objects.requireNonNull(clazz, "Clazz cannot be null");
+
+        //prevent duplicate subscription to a command
+        final Subscriptions current = this.subscriptions;
+        if (!current.subscribedSupertypes(clazz).isEmpty()) {
+            return false;
+        }
+
+        final Map<Class<?>, Executor<?>> executors = new HashMap<>(current.executors);
+        executors.put(clazz, executor);
+        this.subscriptions = new Subscriptions(executors);
+        return true;
+    }
+
+    /**
+     * Subscribes one of several executors to the specified class. Each command that is an instance of the class, or any sub-classes,
+     * is executed by every multicast executor of the class, see {@link #setMulticastExecutor(java.util.concurrent.Executor)}.
+     * If any executor fails the others are reverted, and the command is undone by the executors in reverse order.
+     * @param executor An executor for the command or sub-classes of the command
+     * @param clazz The class of the command
+     * @param <C> The type of the command the executor will handle
+     * @return Returns true if the executor is successfully subscribed, returns false if it is already subscribed to the class, or an
+     * executor of a parent class or a single executor of the class is already subscribed
+     */
+    public synchronized <C extends Command> boolean subscribeMulticast(final Executor<C> executor, final Class <C> clazz) {
+
+        Objects.requireNonNull(executor, "Executor cannot be null");
+        Objects.requireNonNull(clazz, "Clazz cannot be null");
+
+        final Subscriptions current = this.subscriptions;
+        final Executor<?> subscribed = current.executors.get(clazz);
+        final MulticastExecutor multicast;
+        if (subscribed instanceof MulticastExecutor && current.subscribedSupertypes(clazz).size() == 1) {
+            if (((MulticastExecutor) subscribed).contains(executor)) {
+                return false;
+            }
+            multicast = ((MulticastExecutor) subscribed).with(executor);
+        } else if (current.subscribedSupertypes(clazz).isEmpty()) {
+            multicast = new MulticastExecutor(new Executor[]{executor}, this::getMulticastExecutor);
+        } else {
+            return false;
+        }
+
+        final Map<Class<?>, Executor<?>> executors = new HashMap<>(current.executors);
+        executors.put(clazz, multicast);
+        this.subscriptions = new Subscriptions(executors);
+        return true;
+    }
+
+    /**
+     * Unsubscribes the executor from the registry, including from any multicast subscriptions
+     * @param executor The executor to unsubscribe
+     * @param <C> The type of the command the executor handles
+     * @return Returns true if the executor is found and removed, returns false if it is not found
+     */
+    public synchronized <C extends Command> boolean unsubscribe(final Executor<C> executor) {
+        final Map<Class<?>, Executor<?>> executors = new HashMap<>(this.subscriptions.executors);
+        boolean removed = executors.values().removeIf(executor::equals);
+        for (final Iterator<Map.Entry<Class<?>, Executor<?>>> iterator = executors.entrySet().iterator(); iterator.hasNext(); ) {
+            final Map.Entry<Class<?>, Executor<?>> entry = iterator.next();
+            if (entry.getValue() instanceof MulticastExecutor && ((MulticastExecutor) entry.getValue()).contains(executor)) {
+                final MulticastExecutor remaining = ((MulticastExecutor) entry.getValue()).without(executor);
+                if (remaining == null) {
+                    iterator.remove();
+                } else {
+                    entry.setValue(remaining);
+                }
+                removed = true;
+            }
+        }
+        if (removed) {
+            this.subscriptions = new Subscriptions(executors);
+        }
+        return removed;
+    }
+
+    /**
+     * Sets the pool multicast executors run on. With a pool, the executors of a command run at the same time and the command
+     * takes as long as the slowest of them, rather than the sum of all of them. Multicast executors must then not depend on
+     * each other, or publish to the delegator executing them.
+     * @param executor The pool to run multicast executors on, or null to run them in subscription order on the publishing thread
+     */
+    public void setMulticastExecutor(final java.util.concurrent.Executor executor) {
+        this.multicastExecutor = executor;
+    }
+
+    /**
+     * @return the pool multicast executors run on, or null if they run in subscription order on the publishing thread
+     */
+    public java.util.concurrent.Executor getMulticastExecutor() {
+        return multicastExecutor;
+    }
+
+    /**
+     * Gets the most generic executor for the given command
+     * @param command The command for the executor to handle
+     * @return Returns the most generic executor for the given command, or null if there is no registered {@link Executor} for it
+     */
+    Executor findExecutor(final Command command) {
+        Objects.requireNonNull(command, "command must be not null");
+        return this.subscriptions.resolved.get(command.getClass());
+    }
+
+    /**
+     * An immutable set of subscriptions, indexed by the exact subscribed class. The executor of a command class is found by
+     * walking the supertypes of the class, so is proportional to the depth of the class hierarchy rather than the number of
+     * subscriptions, and is then cached for the lifetime of the snapshot
+     */
+    private static final class Subscriptions {
+
+        private final Map<Class<?>, Executor<?>> executors;
+
+        private final ClassValue<Executor<?>> resolved = new ClassValue<Executor<?>>() {
+            @Override
+            protected Executor<?> computeValue(final Class<?> type) {
+                final List<Class<?>> candidates = Subscriptions.this.subscribedSupertypes(type);
+                return candidates.isEmpty() ? null : executors.get(Collections.min(candidates, HIERARCHY_ORDER));
+            }
+        };
+
+        private Subscriptions(final Map<Class<?>, Executor<?>> executors) {
+            this.executors = executors;
+        }
+
+        /**
+         * @param type A class
+         * @return the subscribed classes the class is assignable to, including itself
+         */
+        private List<Class<?>> subscribedSupertypes(final Class<?> type) {
+            final List<Class<?>> subscribed = new ArrayList<>(1);
+            if (executors.isEmpty()) {
+                return subscribed;
+            }
+            final Set<Class<?>> visited = new HashSet<>();
+            final Deque<Class<?>> pending = new ArrayDeque<>();
+            pending.add(type);
+            while (!pending.isEmpty()) {
+                final Class<?> next = pending.poll();
+                if (!visited.add(next)) {
+                    continue;
+                }
+                if (executors.containsKey(next)) {
+                    subscribed.add(next);
+                }
+                if (next.getSuperclass() != null) {
+                    pending.add(next.getSuperclass());
+                }
+                Collections.addAll(pending, next.getInterfaces());
+            }
+            return subscribed;
+        }
+    }
+}
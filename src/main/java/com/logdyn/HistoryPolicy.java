@@ -0,0 +1,86 @@
+package com.logdyn;
+
+import java.util.Objects;
+import java.util.function.ToLongFunction;
+
+/**
+ * Limits the size of the undo/redo history kept by a {@link CommandDelegator}.
+ * When a limit is exceeded the oldest undo entries are discarded first.
+ */
+public final class HistoryPolicy {
+
+    private static final HistoryPolicy UNBOUNDED = new HistoryPolicy(Integer.MAX_VALUE, Long.MAX_VALUE, null);
+
+    private final int maxDepth;
+    private final long maxBytes;
+    private final ToLongFunction<? super Command> sizeEstimator;
+
+    /**
+     * @param maxDepth The maximum number of commands held in the undo and redo history combined
+     * @param maxBytes The maximum estimated size of the commands held in the history, in bytes
+     * @param sizeEstimator Estimates the size of a command in bytes, must return the same value each time it is called for a command.
+     *                      May only be null if {@code maxBytes} is {@link Long#MAX_VALUE}
+     * @throws IllegalArgumentException if either limit is negative
+     */
+    public HistoryPolicy(final int maxDepth, final long maxBytes, final ToLongFunction<? super Command> sizeEstimator) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("maxDepth cannot be negative: " + maxDepth);
+        }
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes cannot be negative: " + maxBytes);
+        }
+        if (maxBytes != Long.MAX_VALUE) {
+            Objects.requireNonNull(sizeEstimator, "sizeEstimator cannot be null when maxBytes is set");
+        }
+        this.maxDepth = maxDepth;
+        this.maxBytes = maxBytes;
+        this.sizeEstimator = sizeEstimator;
+    }
+
+    /**
+     * @return a policy that never discards history, this is the default policy
+     */
+    public static HistoryPolicy unbounded() {
+        return UNBOUNDED;
+    }
+
+    /**
+     * @param maxDepth The maximum number of commands held in the history
+     * @return a policy that limits the number of commands held in the history
+     */
+    public static HistoryPolicy maxDepth(final int maxDepth) {
+        return new HistoryPolicy(maxDepth, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * @param maxBytes The maximum estimated size of the commands held in the history, in bytes
+     * @param sizeEstimator Estimates the size of a command in bytes
+     * @return a policy that limits the estimated memory used by the history
+     */
+    public static HistoryPolicy maxBytes(final long maxBytes, final ToLongFunction<? super Command> sizeEstimator) {
+        return new HistoryPolicy(Integer.MAX_VALUE, maxBytes, sizeEstimator);
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return true if this policy estimates the size of commands
+     */
+    boolean estimatesSize() {
+        return sizeEstimator != null;
+    }
+
+    /**
+     * @param command The command to estimate
+     * @return the estimated size of the command in bytes, or 0 if this policy has no size estimator
+     */
+    long estimateSize(final Command command) {
+        return sizeEstimator == null ? 0 : sizeEstimator.applyAsLong(command);
+    }
+}
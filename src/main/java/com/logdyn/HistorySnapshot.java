@@ -0,0 +1,129 @@
+package com.logdyn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable view of the undo/redo history of a {@link CommandDelegator} at a point in time, see {@link CommandDelegator#getHistorySnapshot()}.
+ * Snapshots share structure with each other, so taking one does not copy the history, and reading one never locks the delegator.
+ */
+public final class HistorySnapshot {
+
+    static final HistorySnapshot EMPTY = new HistorySnapshot(null, 0, null, 0);
+
+    private final Node undo;
+    private final int undoCount;
+    private final Node redo;
+    private final int redoCount;
+
+    HistorySnapshot(final Node undo, final int undoCount, final Node redo, final int redoCount) {
+        this.undo = undo;
+        this.undoCount = undoCount;
+        this.redo = redo;
+        this.redoCount = redoCount;
+    }
+
+    /**
+     * @return true if there is a command that can be undone
+     */
+    public boolean canUndo() {
+        return undoCount > 0 && CompositeCommand.isUndoable(undo.command);
+    }
+
+    /**
+     * @return true if there is a command that can be redone
+     */
+    public boolean canRedo() {
+        return redoCount > 0 && CompositeCommand.isUndoable(redo.command);
+    }
+
+    /**
+     * @return the name of the command that would be undone next, returns null if no command can be undone
+     */
+    public String getUndoName() {
+        return canUndo() ? undo.command.getName() : null;
+    }
+
+    /**
+     * @return the name of the command that would be redone next, returns null if no command can be redone
+     */
+    public String getRedoName() {
+        return canRedo() ? redo.command.getName() : null;
+    }
+
+    /**
+     * @param count The maximum number of names to return
+     * @return the names of the commands in the undo history, most recent first
+     */
+    public List<String> getUndoNames(final int count) {
+        return names(undo, undoCount, count);
+    }
+
+    /**
+     * @param count The maximum number of names to return
+     * @return the names of the commands in the redo history, next to be redone first
+     */
+    public List<String> getRedoNames(final int count) {
+        return names(redo, redoCount, count);
+    }
+
+    /**
+     * @return the number of commands in the undo history
+     */
+    public int getUndoCount() {
+        return undoCount;
+    }
+
+    /**
+     * @return the number of commands in the redo history
+     */
+    public int getRedoCount() {
+        return redoCount;
+    }
+
+    /**
+     * @return the commands in the undo history, oldest first
+     */
+    List<Command> undoCommands() {
+        return commands(undo, undoCount);
+    }
+
+    /**
+     * @return the commands in the redo history, furthest first
+     */
+    List<Command> redoCommands() {
+        return commands(redo, redoCount);
+    }
+
+    private static List<String> names(Node node, final int size, final int count) {
+        final List<String> results = new ArrayList<>(Math.min(count, size));
+        while (results.size() < count && results.size() < size) {
+            results.add(node.command.getName());
+            node = node.next;
+        }
+        return results;
+    }
+
+    private static List<Command> commands(Node node, final int size) {
+        final Command[] results = new Command[size];
+        for (int i = size - 1; i >= 0; i--) {
+            results[i] = node.command;
+            node = node.next;
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * An immutable link in a stack of commands, shared between snapshots
+     */
+    static final class Node {
+        final Command command;
+        final Node next;
+
+        Node(final Command command, final Node next) {
+            this.command = command;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.logdyn;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * The undo or redo stack of a {@link CommandHistory}, with the persistent chain of nodes shared by its snapshots.
+ * <p>
+ * The commands at the top of the stack are held as live objects. Once a {@link SpillFile} is set, the oldest commands beyond the
+ * live depth are spilled to it in batches, and replaced in the stack and chain by a {@link SpilledCommand}, so snapshots do not keep
+ * them reachable. A spilled command is read back when it is popped. Not thread safe, guarded by the owning history.
+ * </p>
+ */
+final class HistoryStack {
+
+    /**
+     * The number of discarded nodes a chain may hold beyond twice the size of the stack before it is rebuilt
+     */
+    private static final int CHAIN_SLACK = 16;
+
+    //the oldest commands, oldest first
+    private final Deque<SpilledCommand> spilled = new ArrayDeque<>();
+    //the newest commands, oldest first
+    private final Deque<Command> live = new ArrayDeque<>();
+    private HistoryPolicy policy = HistoryPolicy.unbounded();
+    private SpillFile spillFile;
+    private int liveDepth;
+    //the oldest live command, if it could not be spilled
+    private Command unspillable;
+
+    //the oldest history is discarded from the deques but remains in the chain until rebuilt
+    private HistorySnapshot.Node chain;
+    private int chainLength;
+    //the part of the chain holding the spilled commands, the live commands are linked on top of it
+    private HistorySnapshot.Node spilledChain;
+    private int spilledChainLength;
+
+    int size() {
+        return spilled.size() + live.size();
+    }
+
+    /**
+     * Changes the policy estimating the size of commands, reading back spilled commands if it has a size estimator
+     * @param policy The new policy
+     * @return the estimated size of the stack under the policy
+     * @throws UncheckedIOException if a spilled command cannot be read back
+     */
+    long setPolicy(final HistoryPolicy policy) {
+        this.policy = policy;
+        long bytes = 0;
+        for (final SpilledCommand command : spilled) {
+            try {
+                command.size = policy.estimatesSize() ? policy.estimateSize(command.rehydrate()) : 0;
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            bytes += command.size;
+        }
+        for (final Command command : live) {
+            bytes += policy.estimateSize(command);
+        }
+        return bytes;
+    }
+
+    /**
+     * Starts spilling the commands beyond the live depth, or stops spilling and reads every spilled command back
+     * @param file The file to spill to, or null to stop spilling
+     * @param liveDepth The number of commands to keep live
+     * @return the file previously spilled to, or null if there was none
+     * @throws UncheckedIOException if a spilled command cannot be read back, in which case the stack is unchanged
+     */
+    SpillFile setSpill(final SpillFile file, final int liveDepth) {
+        final SpillFile previous = this.spillFile;
+        if (previous != null && !spilled.isEmpty()) {
+            final Command[] commands = new Command[spilled.size()];
+            int i = 0;
+            for (final SpilledCommand command : spilled) {
+                try {
+                    commands[i++] = command.rehydrate();
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            for (i = commands.length - 1; i >= 0; i--) {
+                live.addFirst(commands[i]);
+            }
+            spilled.clear();
+            previous.clear();
+            //every spilled node of the chain is replaced
+            this.chainLength = Integer.MAX_VALUE;
+        }
+        this.spillFile = file;
+        this.liveDepth = liveDepth;
+        this.unspillable = null;
+        return previous;
+    }
+
+    void push(final Command command) {
+        live.addLast(command);
+        chain = new HistorySnapshot.Node(command, chain);
+        chainLength++;
+    }
+
+    /**
+     * @return the removed top of the stack, read back if it was spilled
+     * @throws NoSuchElementException if the stack is empty
+     * @throws UncheckedIOException if the top of the stack was spilled and cannot be read back, in which case it is not removed
+     */
+    Command pop() {
+        final Command command;
+        if (!live.isEmpty()) {
+            command = live.removeLast();
+        } else {
+            final SpilledCommand top = spilled.getLast();
+            try {
+                command = top.rehydrate();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            spilled.removeLast();
+            top.release();
+            spilledChain = chain.next;
+            spilledChainLength--;
+        }
+        chain = chain.next;
+        chainLength--;
+        return command;
+    }
+
+    /**
+     * @return the top of the stack, which is a {@link SpilledCommand} if it was spilled, or null if the stack is empty
+     */
+    Command peek() {
+        return live.isEmpty() ? spilled.peekLast() : live.peekLast();
+    }
+
+    /**
+     * Discards the oldest command of the stack
+     * @return the estimated size of the discarded command, or -1 if the stack is empty
+     */
+    long evictOldest() {
+        final SpilledCommand oldestSpilled = spilled.pollFirst();
+        if (oldestSpilled != null) {
+            oldestSpilled.release();
+            return oldestSpilled.size;
+        }
+        final Command oldest = live.pollFirst();
+        return oldest == null ? -1 : policy.estimateSize(oldest);
+    }
+
+    /**
+     * Discards every command of the stack
+     * @return the estimated size of the discarded commands
+     */
+    long clear() {
+        long bytes = 0;
+        for (final SpilledCommand command : spilled) {
+            bytes += command.size;
+        }
+        for (final Command command : live) {
+            bytes += policy.estimateSize(command);
+        }
+        spilled.clear();
+        live.clear();
+        if (spillFile != null) {
+            spillFile.clear();
+        }
+        unspillable = null;
+        return bytes;
+    }
+
+    /**
+     * @param command A live command in the stack
+     * @return the number of commands to pop for the command to be popped, or -1 if it is not a live command of the stack
+     */
+    int depth(final Command command) {
+        int depth = 1;
+        for (final Iterator<Command> iterator = live.descendingIterator(); iterator.hasNext(); depth++) {
+            if (iterator.next() == command) {
+                return depth;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Spills the oldest live commands if there are more than twice the live depth, then rebuilds the chain if it holds too many
+     * discarded nodes. Each is linear in the number of commands it moves, but happens at most once per that many changes.
+     * @return the top of the chain of the stack
+     */
+    HistorySnapshot.Node publish() {
+        if (spillFile != null && live.size() - liveDepth > Math.max(liveDepth, 1)) {
+            this.spill();
+        }
+        if (chainLength > 2 * size() + CHAIN_SLACK || size() == 0) {
+            spilledChain = null;
+            for (final SpilledCommand command : spilled) {
+                spilledChain = new HistorySnapshot.Node(command, spilledChain);
+            }
+            spilledChainLength = spilled.size();
+            chain = link(live, spilledChain);
+            chainLength = size();
+        }
+        return chain;
+    }
+
+    private void spill() {
+        boolean moved = false;
+        while (live.size() > liveDepth && live.peekFirst() != unspillable) {
+            final Command oldest = live.peekFirst();
+            final SpilledCommand command;
+            try {
+                command = spillFile.write(oldest, policy.estimateSize(oldest));
+            } catch (final IOException e) {
+                //kept live, and not tried again while it is the oldest live command
+                unspillable = oldest;
+                break;
+            }
+            live.removeFirst();
+            spilled.addLast(command);
+            spilledChain = new HistorySnapshot.Node(command, spilledChain);
+            spilledChainLength++;
+            moved = true;
+        }
+        if (moved) {
+            chain = link(live, spilledChain);
+            chainLength = spilledChainLength + live.size();
+        }
+    }
+
+    private static HistorySnapshot.Node link(final Deque<Command> commands, HistorySnapshot.Node top) {
+        for (final Command command : commands) {
+            top = new HistorySnapshot.Node(command, top);
+        }
+        return top;
+    }
+}
@@ -0,0 +1,70 @@
+package com.logdyn;
+
+/**
+ * A change made to the history of a {@link CommandDelegator}. Replaying the transitions of a delegator, in order,
+ * rebuilds its history and records without invoking any executors.
+ */
+enum HistoryTransition {
+    /**
+     * A command was executed without being recorded for undo
+     */
+    PUBLISH(ExecutionRecord.Operation.DO),
+    /**
+     * A command was executed and pushed onto the undo history
+     */
+    PUBLISH_RECORDED(ExecutionRecord.Operation.DO),
+    /**
+     * A command was executed and merged into the top of the undo history, see {@link MergeableCommand}
+     */
+    PUBLISH_MERGED(ExecutionRecord.Operation.DO),
+    /**
+     * The top of the undo history was undone
+     */
+    UNDO(ExecutionRecord.Operation.UNDO),
+    /**
+     * The top of the redo history was redone
+     */
+    REDO(ExecutionRecord.Operation.REDO),
+    /**
+     * Undoing the top of the undo history failed, it was moved to the redo history and the rest of the undo history was cleared
+     */
+    UNDO_FAILED(null),
+    /**
+     * Redoing the top of the redo history failed, it was moved to the undo history and the rest of the redo history was cleared
+     */
+    REDO_FAILED(null);
+
+    private static final HistoryTransition[] VALUES = values();
+
+    private final ExecutionRecord.Operation operation;
+
+    HistoryTransition(final ExecutionRecord.Operation operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * @return the operation recorded for this transition, or null if this transition is not recorded
+     */
+    ExecutionRecord.Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return true if this transition carries the command that was published
+     */
+    boolean hasCommand() {
+        return this == PUBLISH || this == PUBLISH_RECORDED || this == PUBLISH_MERGED;
+    }
+
+    /**
+     * @param ordinal The ordinal of a transition
+     * @return the transition with the given ordinal
+     * @throws IllegalArgumentException if there is no such transition
+     */
+    static HistoryTransition valueOf(final int ordinal) {
+        if (ordinal < 0 || ordinal >= VALUES.length) {
+            throw new IllegalArgumentException("Unknown transition: " + ordinal);
+        }
+        return VALUES[ordinal];
+    }
+}
@@ -0,0 +1,17 @@
+package com.logdyn;
+
+import java.util.Collection;
+
+/**
+ * A {@link Command} that declares the resources it works on, so {@link CommandDelegator#publishParallel(Command)} can execute it
+ * at the same time as commands that work on other resources. Commands sharing a key are executed one at a time, in the order they
+ * were published.
+ */
+public interface KeyedCommand extends Command {
+
+    /**
+     * @return the keys of the resources this command works on, compared with {@link Object#equals(Object)}.
+     * Must return the same keys each time it is called
+     */
+    Collection<?> getConflictKeys();
+}
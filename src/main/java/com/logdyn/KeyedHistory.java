@@ -0,0 +1,121 @@
+package com.logdyn;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * An undo/redo history of a {@link CommandDelegator} kept separately for one key, such as a document id,
+ * see {@link CommandDelegator#getKeyedHistory(Object)}.
+ * <p>
+ * Each keyed history has its own lock, so operations on different keys never wait for each other's executors, or for operations
+ * on the main history of the delegator. Adding the {@link ExecutionRecord} of an operation only takes the lock of the execution
+ * records, which is held just long enough to append the record, never while an executor runs. Keyed histories
+ * are not written to an {@link ExecutionJournal} or included in snapshots, and commands published to them are never merged.
+ * </p>
+ */
+public final class KeyedHistory {
+
+    private final Object key;
+    private final CommandDelegator delegator;
+    //guarded by this
+    final CommandHistory history = new CommandHistory();
+
+    KeyedHistory(final Object key, final CommandDelegator delegator, final HistoryPolicy policy) {
+        this.key = key;
+        this.delegator = delegator;
+        this.history.setPolicy(policy);
+    }
+
+    public Object getKey() {
+        return key;
+    }
+
+    /**
+     * Publishes a command to the most generic subscribed executor, recording it in this history
+     * @param command The command to publish and execute
+     * @throws ExecutionException if the command does not execute successfully
+     * @throws NoSuchExecutorException if there is no registered {@link Executor} for the given {@link Command}
+     */
+    public void publish(final Command command) throws ExecutionException {
+        delegator.publishKeyed(this, Objects.requireNonNull(command, "command must be not null"));
+    }
+
+    /**
+     * Undoes the latest command of this history, see {@link CommandDelegator#undo()}
+     * @throws NoSuchElementException if there is no {@link Command} to be undone
+     * @throws ExecutionException if undo does not execute successfully
+     * @throws NoSuchExecutorException if there is no registered {@link Executor} for the {@link Command} to be undone
+     */
+    public void undo() throws ExecutionException {
+        delegator.undoKeyed(this);
+    }
+
+    /**
+     * Redoes the next command of this history, see {@link CommandDelegator#redo()}
+     * @throws NoSuchElementException if there is no {@link Command} to be redone
+     * @throws ExecutionException if redo does not execute successfully
+     * @throws NoSuchExecutorException if there is no registered {@link Executor} for the {@link Command} to be redone
+     */
+    public void redo() throws ExecutionException {
+        delegator.redoKeyed(this);
+    }
+
+    /**
+     * @return an immutable snapshot of this history, as of its latest change. Never locks
+     */
+    public HistorySnapshot getSnapshot() {
+        return history.snapshot();
+    }
+
+    public boolean canUndo() {
+        return history.snapshot().canUndo();
+    }
+
+    public boolean canRedo() {
+        return history.snapshot().canRedo();
+    }
+
+    /**
+     * @return the name of the command that would be undone next, or null if there is none
+     */
+    public String getUndoName() {
+        return history.snapshot().getUndoName();
+    }
+
+    /**
+     * @return the name of the command that would be redone next, or null if there is none
+     */
+    public String getRedoName() {
+        return history.snapshot().getRedoName();
+    }
+
+    public List<String> getUndoNames(final int count) {
+        return history.snapshot().getUndoNames(count);
+    }
+
+    public List<String> getRedoNames(final int count) {
+        return history.snapshot().getRedoNames(count);
+    }
+
+    /**
+     * Sets the policy limiting the size of this history, independently of every other history.
+     * If the history exceeds the new policy the oldest commands are discarded
+     * @param policy The policy to apply
+     */
+    public synchronized void setPolicy(final HistoryPolicy policy) {
+        history.setPolicy(policy);
+    }
+
+    public synchronized HistoryPolicy getPolicy() {
+        return history.getPolicy();
+    }
+
+    /**
+     * Discards every command of this history
+     */
+    public synchronized void clear() {
+        history.clearUndo();
+        history.clearRedo();
+    }
+}
@@ -0,0 +1,31 @@
+package com.logdyn;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.Collection;
+
+/**
+ * Delivers the events of a {@link CommandDelegator} to its listeners, see {@link CommandDelegator#setListenerDispatcher(ListenerDispatcher)}
+ */
+@FunctionalInterface
+public interface ListenerDispatcher {
+
+    /**
+     * Notifies listeners on the thread performing the command, while the delegator is locked. This is the default dispatcher.
+     * A listener notified of an operation on a {@link KeyedHistory} must not perform operations on the delegator or its keyed histories,
+     * as it holds the lock of the records, which those operations wait for while holding a lock of their own
+     */
+    ListenerDispatcher SYNCHRONOUS = (event, listeners) -> {
+        for (final PropertyChangeListener listener : listeners) {
+            listener.propertyChange(event);
+        }
+    };
+
+    /**
+     * Delivers an event. Called while the records of the delegator are locked, in the order of the sequence numbers of the records,
+     * including for operations on a {@link KeyedHistory}, which do not lock the delegator itself
+     * @param event The event to deliver
+     * @param listeners The listeners registered with the delegator, may change after this method returns
+     */
+    void dispatch(PropertyChangeEvent event, Collection<? extends PropertyChangeListener> listeners);
+}
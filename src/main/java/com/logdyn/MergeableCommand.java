@@ -0,0 +1,17 @@
+package com.logdyn;
+
+/**
+ * An {@link UndoableCommand} that can absorb commands published directly after it, so a burst of fine grained commands
+ * (e.g. keystrokes) is undone and redone as a single entry in the history.
+ */
+public interface MergeableCommand extends UndoableCommand {
+
+    /**
+     * Called when a command is published while this command is at the top of the undo history, after the new command has executed.
+     * If this returns true the new command is not added to the history, so undoing or redoing this command must also undo or redo
+     * the effects of {@code next}
+     * @param next The newly published command
+     * @return true if {@code next} has been merged into this command
+     */
+    boolean merge(Command next);
+}
@@ -0,0 +1,170 @@
+package com.logdyn;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The built-in {@link DelegatorMetrics}, keeping counts and {@link LatencyHistogram}s for each class of command, a histogram of
+ * the time spent waiting for the delegator lock, and the latest size of the history and records.
+ * Once a class of command has been seen, recording never allocates or locks. A recorder may be shared by several delegators.
+ *
+ * <pre>{@code
+ * MetricsRecorder metrics = new MetricsRecorder();
+ * CommandDelegator.getINSTANCE().setMetrics(metrics);
+ * ...
+ * metrics.getCommandMetrics().forEach((type, stats) -> System.out.println(type.getName() + " " + stats));
+ * }</pre>
+ */
+public class MetricsRecorder implements DelegatorMetrics {
+
+    private final ConcurrentMap<Class<? extends Command>, CommandMetrics> commandMetrics = new ConcurrentHashMap<>();
+    private final LatencyHistogram lockWait = new LatencyHistogram();
+    private volatile boolean enabled = true;
+    private volatile int undoCount;
+    private volatile int redoCount;
+    private volatile int recordCount;
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Pauses or resumes recording, while paused delegators using this recorder take no measurements
+     * @param enabled false to pause recording
+     */
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void lockAcquired(final long waitNanos) {
+        lockWait.record(waitNanos);
+    }
+
+    @Override
+    public void executed(final Class<? extends Command> commandClass, final ExecutionRecord.Operation operation,
+                         final long durationNanos, final boolean failed) {
+        CommandMetrics metrics = commandMetrics.get(commandClass);
+        if (metrics == null) {
+            metrics = commandMetrics.computeIfAbsent(commandClass, c -> new CommandMetrics());
+        }
+        metrics.record(operation, durationNanos, failed);
+    }
+
+    @Override
+    public void sizesChanged(final int undoCount, final int redoCount, final int recordCount) {
+        this.undoCount = undoCount;
+        this.redoCount = redoCount;
+        this.recordCount = recordCount;
+    }
+
+    /**
+     * @return a live, unmodifiable, view of the metrics of each class of command executed so far
+     */
+    public Map<Class<? extends Command>, CommandMetrics> getCommandMetrics() {
+        return Collections.unmodifiableMap(commandMetrics);
+    }
+
+    /**
+     * @param commandClass The class of command
+     * @return the metrics of the class, or null if no command of exactly that class has been executed
+     */
+    public CommandMetrics getCommandMetrics(final Class<? extends Command> commandClass) {
+        return commandMetrics.get(commandClass);
+    }
+
+    /**
+     * @return the time publishes, undos and redos waited to lock the delegator
+     */
+    public LatencyHistogram getLockWait() {
+        return lockWait;
+    }
+
+    public int getUndoCount() {
+        return undoCount;
+    }
+
+    public int getRedoCount() {
+        return redoCount;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Discards every measurement
+     */
+    public void reset() {
+        commandMetrics.clear();
+        lockWait.reset();
+    }
+
+    /**
+     * The counts and latencies of one class of command
+     */
+    public static final class CommandMetrics {
+
+        private static final ExecutionRecord.Operation[] OPERATIONS = ExecutionRecord.Operation.values();
+
+        private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+        private final AtomicLong[] failures = new AtomicLong[OPERATIONS.length];
+
+        CommandMetrics() {
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                latencies[i] = new LatencyHistogram();
+                failures[i] = new AtomicLong();
+            }
+        }
+
+        void record(final ExecutionRecord.Operation operation, final long durationNanos, final boolean failed) {
+            latencies[operation.ordinal()].record(durationNanos);
+            if (failed) {
+                failures[operation.ordinal()].incrementAndGet();
+            }
+        }
+
+        /**
+         * @param operation The operation
+         * @return the number of times the operation was performed, including failures
+         */
+        public long getCount(final ExecutionRecord.Operation operation) {
+            return latencies[operation.ordinal()].getCount();
+        }
+
+        /**
+         * @param operation The operation
+         * @return the number of times the executor threw an exception performing the operation
+         */
+        public long getFailureCount(final ExecutionRecord.Operation operation) {
+            return failures[operation.ordinal()].get();
+        }
+
+        /**
+         * @param operation The operation
+         * @return the time the executor took to perform the operation, including failures
+         */
+        public LatencyHistogram getLatency(final ExecutionRecord.Operation operation) {
+            return latencies[operation.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder();
+            for (final ExecutionRecord.Operation operation : OPERATIONS) {
+                if (this.getCount(operation) > 0) {
+                    if (builder.length() > 0) {
+                        builder.append(", ");
+                    }
+                    builder.append(operation).append(": ").append(latencies[operation.ordinal()])
+                            .append(" failures=").append(this.getFailureCount(operation));
+                }
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.logdyn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Executes a command with every executor of a multicast subscription, see {@link ExecutorRegistry#subscribeMulticast(Executor, Class)}.
+ * Executors run in subscription order, or all at once when the registry has a multicast pool. If any executor fails, the
+ * executors that succeeded are reverted so the command is applied by all of them or none, and the first failure is thrown with
+ * the others suppressed. Undo runs the executors in reverse order, skipping those that are not an {@link UndoableExecutor}.
+ * <p>
+ * Instances are immutable, subscribing or unsubscribing a member replaces the instance in the registry.
+ * </p>
+ */
+//Handles any class of command, undoable or not, so implements the raw interface
+@SuppressWarnings("rawtypes")
+final class MulticastExecutor implements UndoableExecutor {
+
+    private final Executor[] executors;
+    private final Supplier<java.util.concurrent.Executor> pool;
+
+    /**
+     * @param executors The executors, in subscription order
+     * @param pool Supplies the pool to fan out on, supplying null runs the executors in order on the calling thread
+     */
+    MulticastExecutor(final Executor[] executors, final Supplier<java.util.concurrent.Executor> pool) {
+        this.executors = executors;
+        this.pool = pool;
+    }
+
+    boolean contains(final Executor executor) {
+        for (final Executor member : executors) {
+            if (member.equals(executor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param executor The executor to add
+     * @return a copy with the executor added last
+     */
+    MulticastExecutor with(final Executor executor) {
+        final Executor[] added = Arrays.copyOf(executors, executors.length + 1);
+        added[executors.length] = executor;
+        return new MulticastExecutor(added, pool);
+    }
+
+    /**
+     * @param executor The executor to remove
+     * @return a copy without the executor, or null if no executor would remain
+     */
+    MulticastExecutor without(final Executor executor) {
+        final Executor[] remaining = Arrays.stream(executors).filter(member -> !member.equals(executor)).toArray(Executor[]::new);
+        return remaining.length == 0 ? null : new MulticastExecutor(remaining, pool);
+    }
+
+    @Override
+    public void execute(final Command command) throws Exception {
+        this.apply(command, MulticastExecutor::execute, MulticastExecutor::unexecute);
+    }
+
+    @Override
+    public void unexecute(final UndoableCommand command) throws Exception {
+        for (int i = executors.length - 1; i >= 0; i--) {
+            try {
+                unexecute(executors[i], command);
+            } catch (final Exception e) {
+                for (int j = i + 1; j < executors.length; j++) {
+                    try {
+                        reexecute(executors[j], command);
+                    } catch (final Exception suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void reexecute(final UndoableCommand command) throws Exception {
+        this.apply(command, MulticastExecutor::reexecute, MulticastExecutor::unexecute);
+    }
+
+    /**
+     * Applies a step with every executor, reverting the executors that succeeded if any fails
+     */
+    private void apply(final Command command, final Step step, final Step revert) throws Exception {
+        final java.util.concurrent.Executor pool = this.pool.get();
+        if (pool == null || executors.length == 1) {
+            for (int i = 0; i < executors.length; i++) {
+                try {
+                    step.apply(executors[i], command);
+                } catch (final Exception e) {
+                    revert(command, revert, i - 1, null, e);
+                    throw e;
+                }
+            }
+            return;
+        }
+
+        //fan out every executor but the last, which runs on the calling thread while the others are in flight
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(executors.length - 1);
+        for (int i = 0; i < executors.length - 1; i++) {
+            futures.add(submit(pool, executors[i], command, step));
+        }
+        final Exception[] failures = new Exception[executors.length];
+        try {
+            step.apply(executors[executors.length - 1], command);
+        } catch (final Exception e) {
+            failures[executors.length - 1] = e;
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).join();
+            } catch (final CompletionException e) {
+                failures[i] = e.getCause() instanceof Exception ? (Exception) e.getCause() : new RuntimeException(e.getCause());
+            }
+        }
+
+        Exception cause = null;
+        for (final Exception failure : failures) {
+            if (cause == null) {
+                cause = failure;
+            } else if (failure != null) {
+                cause.addSuppressed(failure);
+            }
+        }
+        if (cause != null) {
+            revert(command, revert, executors.length - 1, failures, cause);
+            throw cause;
+        }
+    }
+
+    /**
+     * Reverts, from index {@code from} down to the first, the executors that did not fail, adding any failure to {@code cause}
+     */
+    private void revert(final Command command, final Step revert, final int from, final Exception[] failures, final Exception cause) {
+        for (int i = from; i >= 0; i--) {
+            if (failures != null && failures[i] != null) {
+                continue;
+            }
+            try {
+                revert.apply(executors[i], command);
+            } catch (final Exception e) {
+                cause.addSuppressed(e);
+            }
+        }
+    }
+
+    private static CompletableFuture<Void> submit(final java.util.concurrent.Executor pool, final Executor executor, final Command command, final Step step) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final Runnable task = () -> {
+            try {
+                step.apply(executor, command);
+                future.complete(null);
+            } catch (final Throwable t) {
+                future.completeExceptionally(t);
+            }
+        };
+        try {
+            pool.execute(task);
+        } catch (final RejectedExecutionException e) {
+            //a saturated pool degrades to running on the calling thread
+            task.run();
+        }
+        return future;
+    }
+
+    private static void execute(final Executor executor, final Command command) throws Exception {
+        //Unchecked call to execute()
+        //noinspection unchecked
+        executor.execute(command);
+    }
+
+    private static void unexecute(final Executor executor, final Command command) throws Exception {
+        if (command instanceof UndoableCommand && executor instanceof UndoableExecutor) {
+            //Unchecked call to unexecute()
+            //noinspection unchecked
+            ((UndoableExecutor) executor).unexecute((UndoableCommand) command);
+        }
+    }
+
+    private static void reexecute(final Executor executor, final Command command) throws Exception {
+        if (command instanceof UndoableCommand && executor instanceof UndoableExecutor) {
+            //Unchecked call to reexecute()
+            //noinspection unchecked
+            ((UndoableExecutor) executor).reexecute((UndoableCommand) command);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Step {
+        void apply(Executor executor, Command command) throws Exception;
+    }
+}
@@ -1,7 +1,35 @@
 package com.logdyn;
 
 public class NoSuchExecutorException extends RuntimeException {
+
+    private final transient Command command;
+
     public NoSuchExecutorException(final Command command) {
-        super(String.format("There is no subscribed Executor for the command '%s'", command.getName()));
+        this(command, true);
+    }
+
+    /**
+     * @param command The command with no registered executor
+     * @param writableStackTrace whether a stack trace is captured, skipping it makes expected failures cheaper to create
+     */
+    public NoSuchExecutorException(final Command command, final boolean writableStackTrace) {
+        super(null, null, true, writableStackTrace);
+        this.command = command;
+    }
+
+    /**
+     * @return the command with no registered executor, which may be a command of a batch
+     */
+    public Command getCommand() {
+        return command;
+    }
+
+    /**
+     * The message is only formatted when it is asked for
+     */
+    @Override
+    public String getMessage() {
+        return command == null ? "There is no subscribed Executor for the command"
+                : "There is no subscribed Executor for the command '" + command.getName() + "'";
     }
 }
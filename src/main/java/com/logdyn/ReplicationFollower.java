@@ -0,0 +1,122 @@
+package com.logdyn;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the messages of a {@link ReplicationStream} to a mirror {@link CommandDelegator}, without invoking any executors.
+ * The mirror keeps the same history, records and sequence numbers as the delegator being replicated, so it can take over at once:
+ * once messages stop being received, the mirror can be used like any other delegator.
+ * <p>
+ * The mirror should have the same {@link HistoryPolicy}, record retention and {@link CommandCodec}s as the delegator being replicated,
+ * and should not be used while it is following.
+ * </p>
+ */
+public class ReplicationFollower {
+
+    private final CommandDelegator mirror;
+    //guarded by this
+    private long latestSequence = -1;
+
+    /**
+     * @param mirror The delegator to apply the replicated history to
+     */
+    public ReplicationFollower(final CommandDelegator mirror) {
+        this.mirror = Objects.requireNonNull(mirror, "mirror cannot be null");
+    }
+
+    public CommandDelegator getMirror() {
+        return mirror;
+    }
+
+    /**
+     * Applies a message to the mirror
+     * @param message A message sent by a {@link ReplicationStream}, from its position to its limit
+     * @throws IOException if the message is malformed, or a command cannot be decoded
+     */
+    public void receive(final ByteBuffer message) throws IOException {
+        this.receive(message, true);
+    }
+
+    /**
+     * Applies a message to the mirror, see {@link #receive(ByteBuffer)}
+     * @param message A message sent by a {@link ReplicationStream}, from its position to its limit
+     * @param allowSerialization Whether commands without a codec may be read using Java serialization, false if the sender is not trusted
+     * @throws IOException if the message is malformed, or a command cannot be decoded
+     */
+    synchronized void receive(final ByteBuffer message, final boolean allowSerialization) throws IOException {
+        try {
+            final byte kind = message.get();
+            if (kind == ReplicationStream.SNAPSHOT) {
+                final byte[] bytes = new byte[message.remaining()];
+                message.get(bytes);
+                mirror.importSnapshot(DelegatorState.readFrom(new ByteArrayInputStream(bytes), mirror.getCodecRegistry(),
+                        allowSerialization, bytes.length));
+                this.latestSequence = mirror.getLatestExecutionRecord().map(ExecutionRecord::getSequence).orElse(-1L);
+            } else if (kind == ReplicationStream.TRANSITIONS) {
+                final int count = message.getInt();
+                for (int i = 0; i < count; i++) {
+                    this.apply(message, allowSerialization);
+                }
+            } else {
+                throw new IOException("Unknown replication message: " + kind);
+            }
+        } catch (final BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Malformed replication message", e);
+        }
+        this.notifyAll();
+    }
+
+    /**
+     * @return the sequence number of the latest record applied to the mirror, or -1 if there is none
+     */
+    public synchronized long getLatestSequence() {
+        return latestSequence;
+    }
+
+    /**
+     * Waits until the record with a sequence number has been applied, for example before the mirror takes over
+     * @param sequence The sequence number of a record of the delegator being replicated
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return true if the record was applied, false if the timeout elapsed first
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized boolean awaitSequence(final long sequence, final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (latestSequence < sequence) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    private void apply(final ByteBuffer message, final boolean allowSerialization) throws IOException {
+        final HistoryTransition transition = HistoryTransition.valueOf(message.get());
+        final long sequence = message.getLong();
+        final long timestamp = message.getLong();
+        final long nanoTime = message.getLong();
+        Command command = null;
+        if (transition.hasCommand()) {
+            final int length = message.getInt();
+            if (length < 0 || length > message.remaining()) {
+                throw new IOException("Invalid command length: " + length);
+            }
+            final ByteBuffer encoded = message.slice();
+            encoded.limit(length);
+            command = mirror.getCodecRegistry().decode(encoded, allowSerialization);
+            message.position(message.position() + length);
+        }
+        mirror.replay(transition, command, sequence, timestamp, nanoTime);
+        if (transition.getOperation() != null) {
+            this.latestSequence = Math.max(latestSequence, sequence);
+        }
+    }
+}
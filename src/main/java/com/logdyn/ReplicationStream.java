@@ -0,0 +1,215 @@
+package com.logdyn;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Ships every change to the history of a {@link CommandDelegator} to a {@link ReplicationFollower}, which keeps a mirror of the
+ * history current without invoking any executors, see {@link CommandDelegator#attachReplication(ReplicationStream)}.
+ * <p>
+ * The first message is a snapshot of the delegator, encoded when the stream is attached. Every later change is encoded into a batch
+ * as it happens, and batches are sent on a background thread, one at a time. Changes made while a batch is being sent are
+ * gathered into the next batch, so the delegator never waits for the follower, and batches grow with the rate of changes.
+ * </p>
+ * <p>
+ * If a message cannot be sent, or a command cannot be encoded, the stream stops and the follower falls behind. {@link #flush()}
+ * then throws the failure, and the follower can only be brought up to date by attaching a new stream.
+ * </p>
+ */
+public class ReplicationStream implements Closeable {
+
+    static final byte SNAPSHOT = 0;
+    static final byte TRANSITIONS = 1;
+    static final int ENTRY_FIXED_LENGTH = 1 + Long.BYTES * 3;
+    private static final int BATCH_HEADER_LENGTH = 1 + Integer.BYTES;
+
+    private final ReplicationTransport transport;
+    private final java.util.concurrent.Executor shipper;
+
+    //guarded by this
+    private CodecRegistry codecs;
+    private byte[] snapshot;
+    private ByteBuffer pending = ByteBuffer.allocate(8192);
+    private ByteBuffer spare = ByteBuffer.allocate(8192);
+    private int pendingCount;
+    private boolean started;
+    private boolean shipping;
+    private IOException failure;
+
+    /**
+     * Creates a stream sending messages on the common pool
+     * @param transport The transport to send messages with
+     */
+    public ReplicationStream(final ReplicationTransport transport) {
+        this(transport, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param transport The transport to send messages with
+     * @param shipper The executor to send messages on, only one message is sent at a time
+     */
+    public ReplicationStream(final ReplicationTransport transport, final java.util.concurrent.Executor shipper) {
+        this.transport = Objects.requireNonNull(transport, "transport cannot be null");
+        this.shipper = Objects.requireNonNull(shipper, "shipper cannot be null");
+        this.pending.position(BATCH_HEADER_LENGTH);
+    }
+
+    /**
+     * Starts the stream with a snapshot of a delegator, which is sent before any change
+     * @param snapshot The state of the delegator, encoded by {@link DelegatorState#toByteArray(CodecRegistry)}
+     * @param codecs The codecs to encode commands with
+     * @throws IllegalStateException if the stream has already been started
+     */
+    synchronized void start(final byte[] snapshot, final CodecRegistry codecs) {
+        if (started) {
+            throw new IllegalStateException("A replication stream can only be attached once");
+        }
+        this.started = true;
+        this.codecs = codecs;
+        this.snapshot = snapshot;
+        this.ship();
+    }
+
+    /**
+     * Adds a change to the next batch, sending it at once if no batch is being sent
+     * @param transition The change made to the history
+     * @param record The record of the change, or null if the change has no record
+     */
+    synchronized void append(final HistoryTransition transition, final ExecutionRecord record) {
+        if (failure != null) {
+            return;
+        }
+        final int start = pending.position();
+        try {
+            this.ensureRemaining(ENTRY_FIXED_LENGTH + Integer.BYTES);
+            pending.put((byte) transition.ordinal());
+            pending.putLong(record == null ? 0 : record.getSequence());
+            pending.putLong(record == null ? 0 : record.getTimestamp());
+            pending.putLong(record == null ? 0 : record.getNanoTime());
+            if (transition.hasCommand()) {
+                final int lengthPosition = pending.position();
+                pending.putInt(0); //command length, filled in once the command is encoded
+                pending = codecs.encodeGrowing(record.getCommand(), pending);
+                pending.putInt(lengthPosition, pending.position() - lengthPosition - Integer.BYTES);
+            }
+        } catch (final IOException | RuntimeException e) {
+            pending.position(start);
+            this.failure = e instanceof IOException ? (IOException) e : new IOException("Command could not be encoded", e);
+            this.notifyAll();
+            return;
+        }
+        pendingCount++;
+        if (!shipping) {
+            this.ship();
+        }
+    }
+
+    /**
+     * Waits until every change appended so far has been sent
+     * @throws IOException if the stream has stopped because a message could not be sent or a command could not be encoded
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public synchronized void flush() throws IOException {
+        while (failure == null && (shipping || pendingCount > 0 || snapshot != null)) {
+            try {
+                this.wait();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while flushing replication stream");
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Sends every change appended so far, then closes the transport. The stream should be detached from its delegator first
+     * @throws IOException if the stream has stopped, or the transport cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.flush();
+        } finally {
+            transport.close();
+        }
+    }
+
+    /**
+     * Hands the snapshot, or else the pending batch, to the shipper
+     */
+    private void ship() {
+        final byte[] state = this.snapshot;
+        final ByteBuffer batch;
+        if (state != null) {
+            this.snapshot = null;
+            batch = null;
+        } else {
+            batch = pending;
+            batch.put(0, TRANSITIONS);
+            batch.putInt(1, pendingCount);
+            batch.flip();
+            this.pending = spare;
+            pending.clear();
+            pending.position(BATCH_HEADER_LENGTH);
+            this.spare = null;
+            this.pendingCount = 0;
+        }
+        this.shipping = true;
+        try {
+            shipper.execute(() -> this.send(state, batch));
+        } catch (final RuntimeException e) {
+            this.shipping = false;
+            this.failure = new IOException("Replication stream could not be shipped", e);
+            this.notifyAll();
+        }
+    }
+
+    private void send(final byte[] state, final ByteBuffer batch) {
+        IOException failed = null;
+        try {
+            if (state != null) {
+                final ByteBuffer message = ByteBuffer.allocate(1 + state.length);
+                message.put(SNAPSHOT);
+                message.put(state);
+                message.flip();
+                transport.send(message);
+            } else {
+                transport.send(batch);
+            }
+        } catch (final IOException e) {
+            failed = e;
+        } catch (final RuntimeException e) {
+            failed = new IOException("Replication message could not be sent", e);
+        }
+
+        synchronized (this) {
+            if (batch != null) {
+                this.spare = batch;
+            }
+            if (failed != null && failure == null) {
+                this.failure = failed;
+            }
+            this.shipping = false;
+            if (failure == null && pendingCount > 0) {
+                this.ship();
+            } else {
+                this.notifyAll();
+            }
+        }
+    }
+
+    private void ensureRemaining(final int length) {
+        if (pending.remaining() < length) {
+            final ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + length));
+            pending.flip();
+            larger.put(pending);
+            this.pending = larger;
+        }
+    }
+}
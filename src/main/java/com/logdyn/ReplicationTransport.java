@@ -0,0 +1,34 @@
+package com.logdyn;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Carries the messages of a {@link ReplicationStream} to a {@link ReplicationFollower}.
+ * {@link SocketReplicationTransport} sends them over a socket, and {@link #inProcess(ReplicationFollower)} hands them straight
+ * to a follower in the same process.
+ */
+@FunctionalInterface
+public interface ReplicationTransport extends Closeable {
+
+    /**
+     * Sends a message, returning once it is sent. Called by one thread at a time, and messages must be delivered in the order they are sent
+     * @param message The message, from its position to its limit. It is only valid during the call
+     * @throws IOException if the message cannot be sent
+     */
+    void send(ByteBuffer message) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+        //NOOP
+    }
+
+    /**
+     * @param follower The follower to deliver messages to
+     * @return a transport applying each message to the follower on the sending thread
+     */
+    static ReplicationTransport inProcess(final ReplicationFollower follower) {
+        return follower::receive;
+    }
+}
@@ -0,0 +1,70 @@
+package com.logdyn;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one at a time, in the order they were submitted, on an underlying {@link java.util.concurrent.Executor}.
+ * The underlying executor can be changed without affecting the order of tasks already submitted.
+ */
+final class SerialExecutor implements java.util.concurrent.Executor {
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean active = new AtomicBoolean();
+    private volatile java.util.concurrent.Executor target;
+
+    SerialExecutor(final java.util.concurrent.Executor target) {
+        this.setTarget(target);
+    }
+
+    java.util.concurrent.Executor getTarget() {
+        return target;
+    }
+
+    void setTarget(final java.util.concurrent.Executor target) {
+        this.target = Objects.requireNonNull(target, "target cannot be null");
+    }
+
+    /**
+     * Queues a task to run after all previously submitted tasks
+     * @param task The task to run
+     * @throws RejectedExecutionException if the underlying executor rejects the task
+     */
+    @Override
+    public void execute(final Runnable task) {
+        tasks.add(Objects.requireNonNull(task, "task cannot be null"));
+        try {
+            this.schedule();
+        } catch (final RejectedExecutionException e) {
+            tasks.remove(task);
+            throw e;
+        }
+    }
+
+    private void schedule() {
+        if (!tasks.isEmpty() && active.compareAndSet(false, true)) {
+            try {
+                target.execute(this::drain);
+            } catch (final RuntimeException e) {
+                active.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        } finally {
+            active.set(false);
+            //a task may have been queued after the last poll but before active was cleared
+            this.schedule();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.logdyn;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Receives the messages sent by a {@link SocketReplicationTransport} and applies them to a {@link ReplicationFollower}, on a
+ * background thread. One sender is served at a time; once it disconnects, the next sender is accepted. If a message can not be
+ * applied, the sender is disconnected and the failure is kept, see {@link #getFailure()}.
+ * <p>
+ * Senders are not authenticated, any peer that can connect can replace the history of the mirror. So the receiver only listens on
+ * a loopback address unless remote senders are explicitly allowed, which should only be done on a trusted network. Messages longer
+ * than {@link #getMaxMessageLength()} are refused, and commands without a registered {@link CommandCodec} are refused rather than
+ * read using Java serialization, unless {@link #setSerializationAllowed(boolean)} is set.
+ * </p>
+ */
+public class SocketReplicationReceiver implements Closeable {
+
+    /**
+     * The default maximum length of a message, in bytes
+     */
+    public static final int DEFAULT_MAX_MESSAGE_LENGTH = 64 * 1024 * 1024;
+
+    private final ReplicationFollower follower;
+    private final ServerSocket server;
+    private final Thread thread;
+    private volatile Socket connection;
+    private volatile IOException failure;
+    private volatile boolean closed;
+    private volatile int maxMessageLength = DEFAULT_MAX_MESSAGE_LENGTH;
+    private volatile boolean serializationAllowed;
+
+    /**
+     * Listens on an ephemeral port of the loopback address
+     * @param follower The follower to apply messages to
+     * @throws IOException if the port cannot be bound
+     */
+    public SocketReplicationReceiver(final ReplicationFollower follower) throws IOException {
+        this(follower, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    /**
+     * Listens on a loopback address
+     * @param follower The follower to apply messages to
+     * @param address The loopback address to listen on
+     * @throws IOException if the address cannot be bound
+     * @throws IllegalArgumentException if the address is not a loopback address
+     */
+    public SocketReplicationReceiver(final ReplicationFollower follower, final SocketAddress address) throws IOException {
+        this(follower, address, false);
+    }
+
+    /**
+     * @param follower The follower to apply messages to
+     * @param address The address to listen on
+     * @param allowRemote Whether the address may be reachable from other hosts, which lets any of them that can connect replace the
+     *                    history of the mirror
+     * @throws IOException if the address cannot be bound
+     * @throws IllegalArgumentException if remote senders are not allowed, and the address is not a loopback address
+     */
+    public SocketReplicationReceiver(final ReplicationFollower follower, final SocketAddress address, final boolean allowRemote) throws IOException {
+        this.follower = Objects.requireNonNull(follower, "follower cannot be null");
+        Objects.requireNonNull(address, "address cannot be null");
+        if (!allowRemote && !isLoopback(address)) {
+            throw new IllegalArgumentException("Not a loopback address, remote senders must be explicitly allowed: " + address);
+        }
+        this.server = new ServerSocket();
+        try {
+            server.bind(address);
+        } catch (final IOException e) {
+            server.close();
+            throw e;
+        }
+        this.thread = new Thread(this::serve, "re-agent-replication-receiver");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the address senders connect to
+     */
+    public SocketAddress getLocalAddress() {
+        return server.getLocalSocketAddress();
+    }
+
+    /**
+     * @return the maximum length of a message, in bytes
+     */
+    public int getMaxMessageLength() {
+        return maxMessageLength;
+    }
+
+    /**
+     * Sets the maximum length of a message, a sender announcing a longer message is disconnected before it is read
+     * @param maxMessageLength The maximum length of a message, in bytes
+     * @throws IllegalArgumentException if the length is not positive
+     */
+    public void setMaxMessageLength(final int maxMessageLength) {
+        if (maxMessageLength <= 0) {
+            throw new IllegalArgumentException("maxMessageLength must be positive: " + maxMessageLength);
+        }
+        this.maxMessageLength = maxMessageLength;
+    }
+
+    public boolean isSerializationAllowed() {
+        return serializationAllowed;
+    }
+
+    /**
+     * Sets whether commands without a registered {@link CommandCodec} are read using Java serialization. Deserializing can run
+     * code of any serializable class on the classpath, so this must only be allowed when every sender is trusted
+     * @param serializationAllowed true to read commands without a codec using Java serialization, false to refuse them
+     */
+    public void setSerializationAllowed(final boolean serializationAllowed) {
+        this.serializationAllowed = serializationAllowed;
+    }
+
+    /**
+     * @return the latest failure to apply a message, or null if there is none
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Stops accepting senders and disconnects the current sender
+     * @throws IOException if the socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            server.close();
+        } finally {
+            final Socket current = connection;
+            if (current != null) {
+                current.close();
+            }
+        }
+    }
+
+    private void serve() {
+        while (!closed && !server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                this.connection = socket;
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                byte[] message = new byte[8192];
+                while (true) {
+                    final int length;
+                    try {
+                        length = in.readInt();
+                    } catch (final EOFException e) {
+                        break;
+                    }
+                    final int maxLength = this.maxMessageLength;
+                    if (length < 0 || length > maxLength) {
+                        throw new IOException("Invalid message length: " + length);
+                    }
+                    if (length > message.length) {
+                        message = new byte[(int) Math.min(Math.max(length, message.length * 2L), maxLength)];
+                    }
+                    in.readFully(message, 0, length);
+                    follower.receive(ByteBuffer.wrap(message, 0, length), serializationAllowed);
+                }
+            } catch (final IOException e) {
+                if (!closed) {
+                    this.failure = e;
+                }
+            } finally {
+                this.connection = null;
+            }
+        }
+    }
+
+    private static boolean isLoopback(final SocketAddress address) {
+        return address instanceof InetSocketAddress && !((InetSocketAddress) address).isUnresolved()
+                && ((InetSocketAddress) address).getAddress().isLoopbackAddress();
+    }
+}
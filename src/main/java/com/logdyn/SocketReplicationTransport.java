@@ -0,0 +1,52 @@
+package com.logdyn;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Sends the messages of a {@link ReplicationStream} over a socket to a {@link SocketReplicationReceiver}.
+ * Each message is written as its length followed by its bytes.
+ */
+public class SocketReplicationTransport implements ReplicationTransport {
+
+    private final Socket socket;
+    private final DataOutputStream out;
+
+    /**
+     * @param address The address of the receiver
+     * @throws IOException if the receiver cannot be connected to
+     */
+    public SocketReplicationTransport(final SocketAddress address) throws IOException {
+        this.socket = new Socket();
+        try {
+            socket.connect(address);
+            socket.setTcpNoDelay(true);
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        } catch (final IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void send(final ByteBuffer message) throws IOException {
+        out.writeInt(message.remaining());
+        if (message.hasArray()) {
+            out.write(message.array(), message.arrayOffset() + message.position(), message.remaining());
+        } else {
+            final byte[] bytes = new byte[message.remaining()];
+            message.duplicate().get(bytes);
+            out.write(bytes);
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,195 @@
+package com.logdyn;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A memory-mapped file holding commands spilled from a {@link HistoryStack}, encoded by a {@link CodecRegistry}. Commands are
+ * appended and read back in stack order, and the oldest are discarded when the history is trimmed, so the entries in use always
+ * form one contiguous region of the file. The space of the newest command is reclaimed as soon as it is read back, and the space
+ * of discarded commands by moving the region to the start of the file, rather than growing the file, once at least half of it is free.
+ * <p>
+ * Each entry is written as its id, length and the encoded command, which is encoded and decoded in place in the mapping. An entry
+ * is located by its position in the stream of everything written to the file, so stays valid when the region is moved. The id of
+ * an entry is checked whenever it is read, so a {@link SpilledCommand} held by an old {@link HistorySnapshot} can not read back a
+ * different command written over its space.
+ * </p>
+ */
+final class SpillFile implements Closeable {
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final int HEADER = Long.BYTES + Integer.BYTES;
+
+    private final FileChannel channel;
+    private final CodecRegistry codecs;
+    private MappedByteBuffer buffer;
+    //the region of the file in use
+    private int start;
+    private int end;
+    //the position in the stream of everything written of the start of the file
+    private long base;
+    private int entries;
+    private long nextId;
+
+    /**
+     * @param directory The directory to create the file in, the file is deleted once closed
+     * @param prefix The prefix of the name of the file
+     * @param codecs The codecs to encode commands with
+     * @throws IOException if the file cannot be created or mapped
+     */
+    SpillFile(final Path directory, final String prefix, final CodecRegistry codecs) throws IOException {
+        this.codecs = codecs;
+        final Path path = Files.createTempFile(directory, prefix, ".spill");
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param command The command to spill
+     * @param size The estimated size of the command, see {@link HistoryPolicy}
+     * @return the placeholder of the spilled command
+     * @throws IOException if the command cannot be encoded, or the file cannot grow
+     */
+    synchronized SpilledCommand write(final Command command, final long size) throws IOException {
+        ByteBuffer target;
+        while (true) {
+            if (end + HEADER <= buffer.capacity()) {
+                target = buffer.duplicate();
+                target.position(end + HEADER);
+                try {
+                    codecs.encode(command, target);
+                    break;
+                } catch (final BufferOverflowException e) {
+                    //NOOP, make room and encode again
+                }
+            }
+            this.makeRoom();
+        }
+        final int offset = end;
+        final int length = target.position() - offset - HEADER;
+        final long id = nextId++;
+        buffer.putLong(offset, id);
+        buffer.putInt(offset + Long.BYTES, length);
+        this.end = offset + HEADER + length;
+        this.entries++;
+        return new SpilledCommand(this, base + offset, id, length, command.getName(), CompositeCommand.isUndoable(command), size);
+    }
+
+    /**
+     * @param spilled The placeholder of a spilled command
+     * @return a copy of the spilled command
+     * @throws IOException if the command is no longer in the file, or cannot be decoded
+     */
+    synchronized Command decode(final SpilledCommand spilled) throws IOException {
+        return codecs.decode(this.entry(spilled));
+    }
+
+    /**
+     * @param spilled The placeholder of a spilled command
+     * @return the encoded command
+     * @throws IOException if the command is no longer in the file
+     */
+    synchronized byte[] read(final SpilledCommand spilled) throws IOException {
+        final ByteBuffer entry = this.entry(spilled);
+        final byte[] bytes = new byte[entry.remaining()];
+        entry.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return a view of the encoded command of an entry
+     */
+    private ByteBuffer entry(final SpilledCommand spilled) throws IOException {
+        final long offset = spilled.offset - base;
+        if (!channel.isOpen() || offset < start || offset + HEADER + spilled.length > end || buffer.getLong((int) offset) != spilled.id) {
+            throw new IOException("Spilled command is no longer available: " + spilled.getName());
+        }
+        final ByteBuffer entry = buffer.duplicate();
+        entry.limit((int) offset + HEADER + spilled.length);
+        entry.position((int) offset + HEADER);
+        return entry;
+    }
+
+    /**
+     * Frees the entry of a command which has been read back or discarded, which must be the newest or oldest entry
+     * @param spilled The placeholder of the spilled command
+     */
+    synchronized void release(final SpilledCommand spilled) {
+        final long offset = spilled.offset - base;
+        if (--entries == 0) {
+            this.clear();
+        } else if (offset == start) {
+            this.start = (int) offset + HEADER + spilled.length;
+        } else if (offset + HEADER + spilled.length == end) {
+            this.end = (int) offset;
+        }
+    }
+
+    /**
+     * Frees every entry
+     */
+    synchronized void clear() {
+        this.base += end;
+        this.entries = 0;
+        this.start = 0;
+        this.end = 0;
+    }
+
+    /**
+     * @return the number of bytes of the file mapped
+     */
+    synchronized int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Moves the region in use to the start of the file if at least half of the file is free, otherwise grows the file
+     */
+    private void makeRoom() throws IOException {
+        if (start > 0 && end - start <= buffer.capacity() / 2) {
+            this.compact();
+        } else {
+            this.grow();
+        }
+    }
+
+    /**
+     * Moves the region in use to the start of the file, in steps no longer than the distance moved so each step never overlaps itself
+     */
+    private void compact() {
+        final int distance = start;
+        for (int from = start; from < end; from += distance) {
+            final ByteBuffer source = buffer.duplicate();
+            source.limit(Math.min(from + distance, end));
+            source.position(from);
+            final ByteBuffer target = buffer.duplicate();
+            target.position(from - distance);
+            target.put(source);
+        }
+        this.base += distance;
+        this.end -= distance;
+        this.start = 0;
+    }
+
+    /**
+     * Maps twice as much of the file
+     */
+    private void grow() throws IOException {
+        if (buffer.capacity() == Integer.MAX_VALUE) {
+            throw new IOException("Spill file is full");
+        }
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(2L * buffer.capacity(), Integer.MAX_VALUE));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,63 @@
+package com.logdyn;
+
+import java.io.IOException;
+
+/**
+ * Stands in for a command of a {@link HistoryStack} that has been spilled to a {@link SpillFile}. It keeps the name of the command
+ * for {@link HistorySnapshot}s, and whether it can be undone, but not the command itself, which is read back by {@link #rehydrate()}.
+ */
+final class SpilledCommand implements Command {
+
+    private final SpillFile file;
+    //the position of the entry in the spill file, which stays the same when the file is compacted
+    final long offset;
+    final long id;
+    final int length;
+    private final String name;
+    private final boolean undoable;
+    //the size estimated by the current HistoryPolicy, guarded by the owning history
+    long size;
+
+    SpilledCommand(final SpillFile file, final long offset, final long id, final int length, final String name,
+                   final boolean undoable, final long size) {
+        this.file = file;
+        this.offset = offset;
+        this.id = id;
+        this.length = length;
+        this.name = name;
+        this.undoable = undoable;
+        this.size = size;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true if the spilled command is undoable, see {@link CompositeCommand#isUndoable(Command)}
+     */
+    boolean isUndoable() {
+        return undoable;
+    }
+
+    /**
+     * @return the spilled command, encoded by a {@link CodecRegistry}
+     * @throws IOException if the command is no longer in the spill file
+     */
+    byte[] bytes() throws IOException {
+        return file.read(this);
+    }
+
+    /**
+     * @return a copy of the spilled command
+     * @throws IOException if the command is no longer in the spill file, or cannot be decoded
+     */
+    Command rehydrate() throws IOException {
+        return file.decode(this);
+    }
+
+    void release() {
+        file.release(this);
+    }
+}
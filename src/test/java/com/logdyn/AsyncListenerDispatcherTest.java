@@ -0,0 +1,72 @@
+package com.logdyn;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static com.logdyn.resources.CommandDelegatorTestUtility.*;
+
+class AsyncListenerDispatcherTest {
+
+    @Test
+    void deliverInOrder() {
+        int count = 100;
+        CommandDelegator delegator = new CommandDelegator();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        List<Long> sequences = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(count);
+        delegator.subscribe(new PublishTestExecutor(), PublishCommand.class);
+        delegator.setListenerDispatcher(new AsyncListenerDispatcher(pool, count));
+        delegator.addListener(event -> {
+            sequences.add(((ExecutionRecord) event.getNewValue()).getSequence());
+            latch.countDown();
+        });
+
+        try {
+            for (int i = 0; i < count; i++) {
+                delegator.publish(new PublishCommand());
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            for (int i = 1; i < count; i++) {
+                assertTrue(sequences.get(i - 1) < sequences.get(i));
+            }
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void dropWhenFull() {
+        CommandDelegator delegator = new CommandDelegator();
+        List<Runnable> tasks = new ArrayList<>();
+        AsyncListenerDispatcher dispatcher = new AsyncListenerDispatcher(tasks::add, 2);
+        List<Object> received = new ArrayList<>();
+        delegator.subscribe(new PublishTestExecutor(), PublishCommand.class);
+        delegator.setListenerDispatcher(dispatcher);
+        delegator.addListener(event -> received.add(event.getNewValue()));
+
+        try {
+            for (int i = 0; i < 5; i++) {
+                delegator.publish(new PublishCommand());
+            }
+            assertEquals(3, dispatcher.getDroppedCount());
+            assertEquals(2, dispatcher.getPendingCount());
+            assertTrue(received.isEmpty());
+
+            assertEquals(1, tasks.size());
+            tasks.get(0).run();
+            assertEquals(2, received.size());
+            assertEquals(0, dispatcher.getPendingCount());
+        } catch (ExecutionException e) {
+            fail(e);
+        }
+    }
+}
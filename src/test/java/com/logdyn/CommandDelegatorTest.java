@@ -2,9 +2,32 @@ package com.logdyn;
 
 import org.junit.jupiter.api.Test;
 
+import java.beans.PropertyChangeEvent;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -31,6 +54,29 @@ class CommandDelegatorTest {
         }
     }
 
+    @Test
+    void resubscribe() {
+        SubscribeTestExecutor first = new SubscribeTestExecutor();
+        SubscribeTestExecutor second = new SubscribeTestExecutor();
+        Command command = new SubscribeCommand();
+
+        assertTrue(CommandDelegator.getINSTANCE().subscribe(first, SubscribeCommand.class));
+        try {
+            CommandDelegator.getINSTANCE().publish(command, false);
+            assertTrue(first.executed);
+
+            assertTrue(CommandDelegator.getINSTANCE().unsubscribe(first));
+            assertTrue(CommandDelegator.getINSTANCE().subscribe(second, SubscribeCommand.class));
+            CommandDelegator.getINSTANCE().publish(command, false);
+            assertTrue(second.executed);
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            CommandDelegator.getINSTANCE().unsubscribe(first);
+            CommandDelegator.getINSTANCE().unsubscribe(second);
+        }
+    }
+
     @Test
     void unsubscribe() {
         UnsubscribeTestExecutor executor = new UnsubscribeTestExecutor();
@@ -228,4 +274,1172 @@ class CommandDelegatorTest {
             fail(e);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void boundedHistory() {
+        UndoableExecutor<UndoableCommand> executor = new GenericUndoableExecutor();
+        CommandDelegator.getINSTANCE().subscribe(executor, UndoableCommand.class);
+        CommandDelegator.getINSTANCE().setHistoryPolicy(HistoryPolicy.maxDepth(2));
+
+        try {
+            for (int i = 0; i < 5; i++) {
+                CommandDelegator.getINSTANCE().publish(new NamedCommand("Bounded: " + i));
+            }
+            assertEquals(Arrays.asList("Bounded: 4", "Bounded: 3"), CommandDelegator.getINSTANCE().getUndoNames(5));
+
+            CommandDelegator.getINSTANCE().undo(2);
+            assertFalse(CommandDelegator.getINSTANCE().canUndo());
+            assertThrows(NoSuchElementException.class, () -> CommandDelegator.getINSTANCE().undo());
+
+            CommandDelegator.getINSTANCE().redo(2);
+            CommandDelegator.getINSTANCE().setHistoryPolicy(HistoryPolicy.maxBytes(10, command -> 10));
+            assertEquals(Collections.singletonList("Bounded: 4"), CommandDelegator.getINSTANCE().getUndoNames(5));
+        } catch (ExecutionException e) {
+            fail(e);
+        } finally {
+            CommandDelegator.getINSTANCE().setHistoryPolicy(HistoryPolicy.unbounded());
+            CommandDelegator.getINSTANCE().unsubscribe(executor);
+        }
+    }
+
+    @Test
+    void executionRecordRetention() {
+        PublishTestExecutor executor = new PublishTestExecutor();
+        Command command = new PublishCommand();
+
+        assertTrue(CommandDelegator.getINSTANCE().subscribe(executor, PublishCommand.class));
+        CommandDelegator.getINSTANCE().setExecutionRecordRetention(3);
+        try {
+            for (int i = 0; i < 5; i++) {
+                CommandDelegator.getINSTANCE().publish(command, false);
+            }
+            SortedSet<ExecutionRecord> records = CommandDelegator.getINSTANCE().getExecutionRecords();
+            assertEquals(3, records.size());
+            assertEquals(CommandDelegator.getINSTANCE().getLatestExecutionRecord().get(), records.first());
+            assertEquals(2, CommandDelegator.getINSTANCE().getExecutionRecords(2).size());
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            CommandDelegator.getINSTANCE().setExecutionRecordRetention(CommandDelegator.DEFAULT_RECORD_RETENTION);
+            assertTrue(CommandDelegator.getINSTANCE().unsubscribe(executor));
+        }
+    }
+
+    @Test
+    void executionRecordSequence() {
+        PublishTestExecutor executor = new PublishTestExecutor();
+        Command command = new PublishCommand();
+        int count = 10;
+
+        assertTrue(CommandDelegator.getINSTANCE().subscribe(executor, PublishCommand.class));
+        try {
+            for (int i = 0; i < count; i++) {
+                CommandDelegator.getINSTANCE().publish(command, false);
+            }
+            //records sharing a timestamp, name and operation are still distinct
+            SortedSet<ExecutionRecord> records = CommandDelegator.getINSTANCE().getExecutionRecords(count);
+            assertEquals(count, records.size());
+
+            long previous = Long.MAX_VALUE;
+            for (ExecutionRecord record : records) {
+                assertTrue(record.getSequence() < previous);
+                assertTrue(records.contains(record));
+                previous = record.getSequence();
+            }
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            assertTrue(CommandDelegator.getINSTANCE().unsubscribe(executor));
+        }
+    }
+
+    @Test
+    void independentDelegators() {
+        ExecutorRegistry registry = new ExecutorRegistry();
+        CommandDelegator first = new CommandDelegator(registry);
+        CommandDelegator second = new CommandDelegator(registry);
+        UndoTestExecutor executor = new UndoTestExecutor();
+
+        assertTrue(first.subscribe(executor, UndoCommand.class));
+        assertFalse(second.subscribe(new UndoTestExecutor(), UndoCommand.class));
+        try {
+            first.publish(new UndoCommand());
+            assertTrue(executor.executed);
+            assertTrue(first.canUndo());
+            assertFalse(second.canUndo());
+            assertFalse(second.getLatestExecutionRecord().isPresent());
+
+            second.publish(new UndoCommand());
+            second.undo();
+            assertTrue(first.canUndo());
+            assertTrue(second.canRedo());
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            assertTrue(registry.unsubscribe(executor));
+        }
+        assertThrows(NoSuchExecutorException.class, () -> first.publish(new UndoCommand()));
+        assertThrows(NoSuchExecutorException.class, () -> new CommandDelegator().publish(new UndoCommand()));
+    }
+
+    @Test
+    void publishAsync() {
+        CommandDelegator delegator = new CommandDelegator();
+        MultipleRedoTestExecutor executor = new MultipleRedoTestExecutor();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        delegator.setAsyncExecutor(pool);
+        delegator.subscribe(executor, RedoCommand.class);
+
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(delegator.publishAsync(new RedoCommand()));
+            }
+            futures.add(delegator.undoAsync());
+            futures.add(delegator.redoAsync());
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+            assertEquals(100, executor.executedCount);
+            assertEquals(1, executor.unexecutedCount);
+            assertEquals(1, executor.reexecutedCount);
+            assertEquals(100, delegator.getUndoNames(Integer.MAX_VALUE).size());
+
+            CompletableFuture<Void> failed = delegator.redoAsync();
+            java.util.concurrent.ExecutionException thrown = assertThrows(java.util.concurrent.ExecutionException.class, failed::get);
+            assertTrue(thrown.getCause() instanceof NoSuchElementException);
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void publishAll() {
+        CommandDelegator delegator = new CommandDelegator();
+        MultipleRedoTestExecutor executor = new MultipleRedoTestExecutor();
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        delegator.subscribe(executor, RedoCommand.class);
+        delegator.subscribe(new FailingTestExecutor(), FailingCommand.class);
+        delegator.addListener(events::add);
+
+        try {
+            delegator.publishAll("Batch", Arrays.asList(new RedoCommand(), new RedoCommand(), new RedoCommand()));
+            assertEquals(3, executor.executedCount);
+            assertEquals(1, events.size());
+            assertEquals(Collections.singletonList("Batch"), delegator.getUndoNames(Integer.MAX_VALUE));
+
+            delegator.undo();
+            assertEquals(3, executor.unexecutedCount);
+            delegator.redo();
+            assertEquals(3, executor.reexecutedCount);
+            assertEquals(3, events.size());
+
+            //a failure part way through reverts the commands already executed
+            ExecutionException thrown = assertThrows(ExecutionException.class, () -> delegator.publishAll(
+                    Arrays.asList(new RedoCommand(), new RedoCommand(), new FailingCommand())));
+            assertTrue(thrown.getCause() instanceof IllegalStateException);
+            assertEquals(5, executor.executedCount);
+            assertEquals(5, executor.unexecutedCount);
+            assertEquals(3, events.size());
+
+            assertThrows(NoSuchExecutorException.class, () -> delegator.publishAll(
+                    Arrays.asList(new RedoCommand(), new UndoCommand())));
+            assertEquals(5, executor.executedCount);
+        } catch (ExecutionException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    void mergeCommands() {
+        CommandDelegator delegator = new CommandDelegator();
+        delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+
+        try {
+            delegator.publish(new TypingCommand("a"));
+            delegator.publish(new TypingCommand("b"));
+            delegator.publish(new TypingCommand("c"));
+            assertEquals(Collections.singletonList("Typing: abc"), delegator.getUndoNames(Integer.MAX_VALUE));
+
+            delegator.publish(new NamedCommand("Named"));
+            delegator.publish(new TypingCommand("d"));
+            assertEquals(Arrays.asList("Typing: d", "Named", "Typing: abc"), delegator.getUndoNames(Integer.MAX_VALUE));
+
+            //undoing ends the merge, the next command starts a new entry
+            delegator.undo();
+            delegator.redo();
+            delegator.publish(new TypingCommand("e"));
+            assertEquals(Arrays.asList("Typing: e", "Typing: d", "Named", "Typing: abc"), delegator.getUndoNames(Integer.MAX_VALUE));
+
+            delegator.setMergeWindow(0, TimeUnit.MILLISECONDS);
+            Thread.sleep(5);
+            delegator.publish(new TypingCommand("f"));
+            assertEquals("Typing: f", delegator.getUndoName());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    void historySnapshot() {
+        CommandDelegator delegator = new CommandDelegator();
+        delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+        delegator.setHistoryPolicy(HistoryPolicy.maxDepth(5));
+
+        try {
+            for (int i = 0; i < 100; i++) {
+                delegator.publish(new NamedCommand("Command: " + i));
+            }
+            HistorySnapshot before = delegator.getHistorySnapshot();
+            delegator.undo(2);
+            HistorySnapshot after = delegator.getHistorySnapshot();
+
+            assertEquals(5, before.getUndoCount());
+            assertEquals(0, before.getRedoCount());
+            assertEquals(Arrays.asList("Command: 99", "Command: 98", "Command: 97", "Command: 96", "Command: 95"),
+                    before.getUndoNames(Integer.MAX_VALUE));
+            assertFalse(before.canRedo());
+
+            assertEquals(Arrays.asList("Command: 97", "Command: 96", "Command: 95"), after.getUndoNames(Integer.MAX_VALUE));
+            assertEquals(Arrays.asList("Command: 98", "Command: 99"), after.getRedoNames(Integer.MAX_VALUE));
+            assertEquals("Command: 98", after.getRedoName());
+            assertEquals("Command: 97", delegator.getUndoName());
+        } catch (ExecutionException e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    void exportSnapshot() {
+        CommandDelegator delegator = new CommandDelegator();
+        delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+
+        try {
+            delegator.publish(new NamedCommand("A"));
+            delegator.publish(new NamedCommand("B"));
+            delegator.publish(new NamedCommand("C"));
+            delegator.undo();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            delegator.exportSnapshot(out);
+
+            //no executors are subscribed, importing must not invoke any
+            CommandDelegator restored = new CommandDelegator();
+            restored.importSnapshot(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(Arrays.asList("B", "A"), restored.getUndoNames(Integer.MAX_VALUE));
+            assertEquals(Collections.singletonList("C"), restored.getRedoNames(Integer.MAX_VALUE));
+            assertEquals(4, restored.getExecutionRecords().size());
+
+            ExecutionRecord latest = restored.getLatestExecutionRecord().get();
+            assertEquals(ExecutionRecord.Operation.UNDO, latest.getOperation());
+            assertEquals(delegator.getLatestExecutionRecord().get().getSequence(), latest.getSequence());
+
+            restored.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+            restored.redo();
+            assertEquals(latest.getSequence() + 1, restored.getLatestExecutionRecord().get().getSequence());
+            assertSame(restored.getLatestExecutionRecord().get().getCommand(), latest.getCommand());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    void exportBatchSnapshot() {
+        CommandDelegator delegator = new CommandDelegator();
+        delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+
+        try {
+            delegator.publishAll("Outer", Arrays.asList(new NamedCommand("A"),
+                    new CompositeCommand(null, Arrays.asList(new NamedCommand("B"), new NamedCommand("C")))));
+            delegator.publishAll(Arrays.asList(new NamedCommand("D"), new NamedCommand("E")));
+            delegator.undo();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            delegator.exportSnapshot(out);
+
+            CommandDelegator restored = new CommandDelegator();
+            restored.importSnapshot(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(Collections.singletonList("Outer"), restored.getUndoNames(Integer.MAX_VALUE));
+            assertEquals(Collections.singletonList("2 commands"), restored.getRedoNames(Integer.MAX_VALUE));
+            CompositeCommand outer = (CompositeCommand) restored.getExecutionRecords().stream()
+                    .filter(record -> "Outer".equals(record.getCommand().getName())).findFirst().get().getCommand();
+            CompositeCommand inner = (CompositeCommand) outer.getCommands().get(1);
+            assertNull(inner.getName());
+            assertEquals("C", inner.getCommands().get(1).getName());
+
+            restored.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+            restored.redo();
+            restored.undo(2);
+            assertFalse(restored.canUndo());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    void metrics() {
+        CommandDelegator delegator = new CommandDelegator();
+        delegator.subscribe(new UndoTestExecutor(), UndoCommand.class);
+        delegator.subscribe(new FailingTestExecutor(), FailingCommand.class);
+        MetricsRecorder metrics = new MetricsRecorder();
+        delegator.setMetrics(metrics);
+
+        try {
+            delegator.publish(new UndoCommand());
+            delegator.publish(new UndoCommand());
+            delegator.undo();
+            assertThrows(ExecutionException.class, () -> delegator.publish(new FailingCommand(), false));
+
+            MetricsRecorder.CommandMetrics undoable = metrics.getCommandMetrics(UndoCommand.class);
+            assertEquals(2, undoable.getCount(ExecutionRecord.Operation.DO));
+            assertEquals(1, undoable.getCount(ExecutionRecord.Operation.UNDO));
+            assertEquals(0, undoable.getCount(ExecutionRecord.Operation.REDO));
+            assertTrue(undoable.getLatency(ExecutionRecord.Operation.DO).getMax() >= undoable.getLatency(ExecutionRecord.Operation.DO).getValueAtPercentile(50));
+            assertEquals(1, metrics.getCommandMetrics(FailingCommand.class).getFailureCount(ExecutionRecord.Operation.DO));
+            assertEquals(4, metrics.getLockWait().getCount());
+            assertEquals(1, metrics.getUndoCount());
+            assertEquals(1, metrics.getRedoCount());
+            assertEquals(3, metrics.getRecordCount());
+
+            metrics.setEnabled(false);
+            delegator.redo();
+            assertEquals(0, undoable.getCount(ExecutionRecord.Operation.REDO));
+            assertEquals(1, metrics.getRedoCount());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    void latencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_500, histogram.getMean(), 0.001);
+        //values are reported to within the width of their bucket
+        assertEquals(500_000, histogram.getValueAtPercentile(50), 500_000 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(990_000, histogram.getValueAtPercentile(99), 990_000 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(1_000_000, histogram.getValueAtPercentile(100));
+        assertThrows(IllegalArgumentException.class, () -> histogram.getValueAtPercentile(101));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    void queryExecutionRecords() {
+        CommandDelegator delegator = new CommandDelegator();
+        delegator.subscribe(new UndoTestExecutor(), UndoCommand.class);
+        delegator.subscribe(new RedoTestExecutor(), RedoCommand.class);
+        delegator.setExecutionRecordRetention(6);
+
+        try {
+            for (int i = 0; i < 4; i++) {
+                delegator.publish(new UndoCommand());
+                delegator.publish(new RedoCommand());
+            }
+            delegator.undo();
+            //the retained records, newest first, are UNDO Redo, DO Redo, DO Undo, DO Redo, DO Undo, DO Redo
+            assertEquals(new ArrayList<>(delegator.getExecutionRecords()),
+                    delegator.queryExecutionRecords(ExecutionRecordQuery.all()).collect(Collectors.toList()));
+            assertEquals(2, delegator.queryExecutionRecords(ExecutionRecordQuery.all().ofType(UndoCommand.class)).count());
+            assertEquals(6, delegator.queryExecutionRecords(ExecutionRecordQuery.all().ofType(UndoableCommand.class)).count());
+            assertEquals(3, delegator.queryExecutionRecords(ExecutionRecordQuery.all()
+                    .ofType(RedoCommand.class)
+                    .withOperation(ExecutionRecord.Operation.DO)).count());
+            assertEquals(delegator.getLatestExecutionRecord(),
+                    delegator.queryExecutionRecords(ExecutionRecordQuery.all().withOperation(ExecutionRecord.Operation.UNDO)).findFirst());
+
+            long latest = delegator.getLatestExecutionRecord().get().getTimestamp();
+            long oldest = delegator.getExecutionRecords().last().getTimestamp();
+            assertEquals(0, delegator.queryExecutionRecords(ExecutionRecordQuery.all().between(latest + 1, Long.MAX_VALUE)).count());
+            assertEquals(6, delegator.queryExecutionRecords(ExecutionRecordQuery.all().between(oldest, latest)).count());
+
+            //a query only sees the records retained when it started
+            Iterator<ExecutionRecord> undoRecords = delegator.queryExecutionRecords(ExecutionRecordQuery.all().ofType(UndoCommand.class)).iterator();
+            delegator.publish(new UndoCommand());
+            List<ExecutionRecord> seen = new ArrayList<>();
+            undoRecords.forEachRemaining(seen::add);
+            assertEquals(2, seen.size());
+
+            Iterator<ExecutionRecord> allRecords = delegator.queryExecutionRecords(ExecutionRecordQuery.all()).iterator();
+            delegator.setExecutionRecordRetention(3);
+            assertThrows(ConcurrentModificationException.class, allRecords::hasNext);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    void executionRecordColumns() {
+        CommandDelegator delegator = new CommandDelegator();
+        delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+        delegator.subscribe(new PublishTestExecutor(), PublishCommand.class);
+        delegator.setExecutionRecordRetention(40);
+        delegator.setRecordNanoTime(true);
+
+        try {
+            //fills the log several times over, with the classes of the oldest records leaving the log
+            for (int i = 0; i < 100; i++) {
+                delegator.publish(i < 50 ? new NamedCommand("Named") : new PublishCommand(), false);
+            }
+            SortedSet<ExecutionRecord> records = delegator.getExecutionRecords();
+            assertEquals(40, records.size());
+            assertEquals(100, records.first().getSequence());
+            assertEquals(61, records.last().getSequence());
+            assertTrue(records.stream().allMatch(record -> record.getCommand() instanceof PublishCommand && record.getNanoTime() != 0));
+            assertEquals(0, delegator.queryExecutionRecords(ExecutionRecordQuery.all().ofType(NamedCommand.class)).count());
+            assertEquals(40, delegator.queryExecutionRecords(ExecutionRecordQuery.all().ofType(PublishCommand.class)).count());
+
+            delegator.publish(new NamedCommand("Named"), false);
+            assertEquals(1, delegator.queryExecutionRecords(ExecutionRecordQuery.all().ofType(NamedCommand.class)).count());
+            assertEquals(39, delegator.queryExecutionRecords(ExecutionRecordQuery.all().ofType(PublishCommand.class)).count());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    void undoTo() {
+        CommandDelegator delegator = new CommandDelegator();
+        delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        delegator.addListener(events::add);
+
+        try {
+            for (String name : Arrays.asList("A", "B", "C", "D", "E")) {
+                delegator.publish(new NamedCommand(name));
+            }
+            ExecutionRecord recordOfB = delegator.queryExecutionRecords(ExecutionRecordQuery.all())
+                    .filter(record -> record.getCommand().getName().equals("B"))
+                    .findFirst().get();
+            events.clear();
+
+            delegator.undoTo(recordOfB);
+            assertEquals(Collections.singletonList("A"), delegator.getUndoNames(Integer.MAX_VALUE));
+            assertEquals(1, events.size());
+            assertEquals(delegator.getLatestExecutionRecord().get(), events.get(0).getNewValue());
+            assertEquals("B", delegator.getLatestExecutionRecord().get().getCommand().getName());
+
+            //nothing is undone if there are too few commands
+            assertThrows(NoSuchElementException.class, () -> delegator.undo(2));
+            assertThrows(NoSuchElementException.class, () -> delegator.undoTo(recordOfB));
+            assertEquals(Collections.singletonList("A"), delegator.getUndoNames(Integer.MAX_VALUE));
+
+            events.clear();
+            delegator.redo(2);
+            assertEquals(Arrays.asList("C", "B", "A"), delegator.getUndoNames(Integer.MAX_VALUE));
+            assertEquals(1, events.size());
+
+            ExecutionRecord recordOfE = delegator.queryExecutionRecords(ExecutionRecordQuery.all())
+                    .filter(record -> record.getCommand().getName().equals("E"))
+                    .findFirst().get();
+            delegator.redoTo(recordOfE);
+            assertFalse(delegator.canRedo());
+            assertEquals(2, events.size());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    void publishParallel() {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        CommandDelegator delegator = new CommandDelegator();
+        KeyedTestExecutor executor = new KeyedTestExecutor();
+        delegator.subscribe(executor, KeyedTestCommand.class);
+        delegator.setParallelExecutor(pool);
+
+        try {
+            //commands with different keys execute at the same time
+            CountDownLatch rendezvous = new CountDownLatch(2);
+            CompletableFuture.allOf(
+                    delegator.publishParallel(new KeyedTestCommand("a", 0, rendezvous)),
+                    delegator.publishParallel(new KeyedTestCommand("b", 0, rendezvous))).get(10, TimeUnit.SECONDS);
+
+            //commands sharing a key execute one at a time, in order
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 1; i <= 20; i++) {
+                futures.add(delegator.publishParallel(new KeyedTestCommand(i % 2 == 0 ? "a" : "b", i, null)));
+            }
+            //waits for every parallel command published before it
+            delegator.undo(22);
+            for (CompletableFuture<Void> future : futures) {
+                assertTrue(future.isDone());
+            }
+
+            assertFalse(executor.overlapped);
+            List<String> executedA = executor.executed.stream().filter(name -> name.startsWith("a")).collect(Collectors.toList());
+            assertEquals(Arrays.asList("a0", "a2", "a4", "a6", "a8", "a10", "a12", "a14", "a16", "a18", "a20"), executedA);
+            List<String> unexecutedA = executor.unexecuted.stream().filter(name -> name.startsWith("a")).collect(Collectors.toList());
+            Collections.reverse(unexecutedA);
+            assertEquals(executedA, unexecutedA);
+            assertEquals(22, delegator.getRedoNames(Integer.MAX_VALUE).size());
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void publishParallelDuringIdlePublish() {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        CommandDelegator delegator = new CommandDelegator();
+        KeyedTestExecutor keyed = new KeyedTestExecutor();
+        delegator.subscribe(keyed, KeyedTestCommand.class);
+        delegator.subscribe(new UndoableExecutor<NamedCommand>() {
+            @Override
+            public void execute(NamedCommand command) {
+                //NOOP
+            }
+
+            @Override
+            public void unexecute(NamedCommand command) {
+                //NOOP
+            }
+        }, NamedCommand.class);
+        delegator.setParallelExecutor(pool);
+        List<CompletableFuture<Void>> submitted = new ArrayList<>();
+        delegator.subscribe(new UndoableExecutor<UndoCommand>() {
+            @Override
+            public void execute(UndoCommand command) throws Exception {
+                //entered while no parallel command was in flight, a command submitted now waits for this publish
+                CompletableFuture<Void> future = delegator.publishParallel(new KeyedTestCommand("a", 0, null));
+                submitted.add(future);
+                assertThrows(TimeoutException.class, () -> future.get(100, TimeUnit.MILLISECONDS));
+                assertTrue(keyed.executed.isEmpty());
+                //a nested publish does not wait for the command held back by its caller
+                delegator.publish(new NamedCommand("nested"));
+            }
+
+            @Override
+            public void unexecute(UndoCommand command) {
+                //NOOP
+            }
+        }, UndoCommand.class);
+
+        try {
+            delegator.publish(new UndoCommand());
+            submitted.get(0).get(10, TimeUnit.SECONDS);
+            assertEquals(Collections.singletonList("a0"), keyed.executed);
+            assertEquals(Arrays.asList("a0", "UndoCommand", "nested"), delegator.getUndoNames(Integer.MAX_VALUE));
+
+            //once idle again, publishing takes the fast path and still orders after parallel commands
+            CompletableFuture<Void> later = delegator.publishParallel(new KeyedTestCommand("b", 0, null));
+            delegator.publish(new NamedCommand("after"));
+            assertTrue(later.isDone());
+            assertEquals("after", delegator.getUndoName());
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void publishAsyncAfterParallelOnOneThread() {
+        ExecutorService thread = Executors.newSingleThreadExecutor();
+        CommandDelegator delegator = new CommandDelegator();
+        KeyedTestExecutor keyed = new KeyedTestExecutor();
+        delegator.subscribe(keyed, KeyedTestCommand.class);
+        CountDownLatch release = new CountDownLatch(1);
+        delegator.subscribe(new UndoableExecutor<NamedCommand>() {
+            @Override
+            public void execute(NamedCommand command) throws Exception {
+                if ("slow".equals(command.getName())) {
+                    release.await();
+                }
+            }
+
+            @Override
+            public void unexecute(NamedCommand command) {
+                //NOOP
+            }
+        }, NamedCommand.class);
+        delegator.setAsyncExecutor(thread);
+        delegator.setParallelExecutor(thread);
+
+        try {
+            CompletableFuture<Void> slow = delegator.publishAsync(new NamedCommand("slow"));
+            CompletableFuture<Void> parallel = delegator.publishParallel(new KeyedTestCommand("a", 0, null));
+            //drained on the only thread, so it must run the parallel command queued behind it rather than wait for it
+            CompletableFuture<Void> next = delegator.publishAsync(new NamedCommand("next"));
+            release.countDown();
+            CompletableFuture.allOf(slow, parallel, next).get(10, TimeUnit.SECONDS);
+            assertEquals(Collections.singletonList("a0"), keyed.executed);
+            assertEquals("next", delegator.getUndoName());
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            thread.shutdown();
+        }
+    }
+
+    @Test
+    void keyedHistory() {
+        ExecutorService thread = Executors.newSingleThreadExecutor();
+        CommandDelegator delegator = new CommandDelegator();
+        KeyedTestExecutor executor = new KeyedTestExecutor();
+        delegator.subscribe(executor, KeyedTestCommand.class);
+        KeyedHistory documentA = delegator.getKeyedHistory("a");
+        KeyedHistory documentB = delegator.getKeyedHistory("b");
+
+        try {
+            //a publish to one key does not wait for a publish to another key
+            CountDownLatch rendezvous = new CountDownLatch(2);
+            CompletableFuture<Void> publishA = CompletableFuture.runAsync(() -> {
+                try {
+                    documentA.publish(new KeyedTestCommand("a", 0, rendezvous));
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, thread);
+            documentB.publish(new KeyedTestCommand("b", 0, rendezvous));
+            publishA.get(10, TimeUnit.SECONDS);
+
+            documentA.setPolicy(HistoryPolicy.maxDepth(2));
+            documentA.publish(new KeyedTestCommand("a", 1, null));
+            documentA.publish(new KeyedTestCommand("a", 2, null));
+            assertEquals(Arrays.asList("a2", "a1"), documentA.getUndoNames(Integer.MAX_VALUE));
+            assertEquals(Collections.singletonList("b0"), documentB.getUndoNames(Integer.MAX_VALUE));
+            assertFalse(delegator.canUndo());
+
+            documentB.undo();
+            assertFalse(documentB.canUndo());
+            assertEquals("b0", documentB.getRedoName());
+            assertEquals("a2", documentA.getUndoName());
+            assertEquals(Collections.singletonList("b0"), executor.unexecuted);
+            assertThrows(NoSuchElementException.class, documentB::undo);
+
+            documentB.redo();
+            assertSame(documentB, delegator.getKeyedHistory("b"));
+            assertEquals(6, delegator.getExecutionRecords().size());
+            assertEquals(ExecutionRecord.Operation.REDO, delegator.getLatestExecutionRecord().get().getOperation());
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            thread.shutdown();
+        }
+    }
+
+    @Test
+    void keyedEventsInSequenceOrder() {
+        ExecutorService thread = Executors.newSingleThreadExecutor();
+        CommandDelegator delegator = new CommandDelegator();
+        delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+        delegator.subscribe(new KeyedTestExecutor(), KeyedTestCommand.class);
+        KeyedHistory document = delegator.getKeyedHistory("a");
+        List<Long> sequences = Collections.synchronizedList(new ArrayList<>());
+        delegator.addListener(event -> sequences.add(((ExecutionRecord) event.getNewValue()).getSequence()));
+
+        try {
+            //keyed histories do not lock the delegator, but their events are still delivered in the order of their records
+            CompletableFuture<Void> keyed = CompletableFuture.runAsync(() -> {
+                try {
+                    for (int i = 0; i < 500; i++) {
+                        document.publish(new KeyedTestCommand("a", i, null));
+                    }
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, thread);
+            for (int i = 0; i < 500; i++) {
+                delegator.publish(new NamedCommand("C" + i));
+            }
+            keyed.get(10, TimeUnit.SECONDS);
+
+            assertEquals(1000, sequences.size());
+            for (int i = 1; i < sequences.size(); i++) {
+                assertTrue(sequences.get(i - 1) < sequences.get(i), "Event " + i + " out of order: " + sequences);
+            }
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            thread.shutdown();
+        }
+    }
+
+    @Test
+    void keyedHistoryDuringSlowPublish() {
+        ExecutorService thread = Executors.newSingleThreadExecutor();
+        CommandDelegator delegator = new CommandDelegator();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        delegator.subscribe(new UndoableExecutor<UndoCommand>() {
+            @Override
+            public void execute(UndoCommand command) throws Exception {
+                started.countDown();
+                release.await(10, TimeUnit.SECONDS);
+            }
+
+            @Override
+            public void unexecute(UndoCommand command) {
+                //NOOP
+            }
+        }, UndoCommand.class);
+        KeyedTestExecutor executor = new KeyedTestExecutor();
+        delegator.subscribe(executor, KeyedTestCommand.class);
+        KeyedHistory document = delegator.getKeyedHistory("a");
+
+        try {
+            //the main history holds the delegator while its executor runs, a keyed history must not wait for it
+            CompletableFuture<Void> slow = CompletableFuture.runAsync(() -> {
+                try {
+                    delegator.publish(new UndoCommand());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, thread);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            CompletableFuture.runAsync(() -> {
+                try {
+                    document.publish(new KeyedTestCommand("a", 0, null));
+                    document.undo();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e);
+                }
+            }).get(10, TimeUnit.SECONDS);
+            assertEquals(Collections.singletonList("a0"), executor.unexecuted);
+            assertEquals(ExecutionRecord.Operation.UNDO, delegator.getLatestExecutionRecord().get().getOperation());
+            assertFalse(slow.isDone());
+
+            release.countDown();
+            slow.get(10, TimeUnit.SECONDS);
+            assertEquals(3, delegator.getExecutionRecords().size());
+            assertTrue(delegator.canUndo());
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            release.countDown();
+            thread.shutdown();
+        }
+    }
+
+    @Test
+    void subscribeDuringPublish() {
+        ExecutorService publisher = Executors.newSingleThreadExecutor();
+        CommandDelegator delegator = new CommandDelegator();
+        delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+
+        try {
+            CompletableFuture<Void> publishing = CompletableFuture.runAsync(() -> {
+                try {
+                    for (int i = 0; i < 10_000; i++) {
+                        delegator.publish(new NamedCommand("Live"), false);
+                    }
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, publisher);
+
+            //the registry is replaced on every change, so publishing is never disturbed
+            PublishTestExecutor executor = new PublishTestExecutor();
+            while (!publishing.isDone()) {
+                assertTrue(delegator.subscribe(executor, PublishCommand.class));
+                assertFalse(delegator.subscribe(new UndoTestExecutor(), UndoCommand.class));
+                assertTrue(delegator.unsubscribe(executor));
+            }
+            publishing.get(10, TimeUnit.SECONDS);
+
+            delegator.subscribe(executor, PublishCommand.class);
+            delegator.publish(new PublishCommand(), false);
+            assertTrue(executor.executed);
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            publisher.shutdown();
+        }
+    }
+
+    @Test
+    void subscribeMulticast() {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        ExecutorRegistry registry = new ExecutorRegistry();
+        registry.setMulticastExecutor(pool);
+        CommandDelegator delegator = new CommandDelegator(registry);
+        KeyedTestExecutor first = new KeyedTestExecutor();
+        KeyedTestExecutor second = new KeyedTestExecutor();
+
+        assertTrue(delegator.subscribeMulticast(first, KeyedTestCommand.class));
+        assertTrue(delegator.subscribeMulticast(second, KeyedTestCommand.class));
+        assertFalse(delegator.subscribeMulticast(first, KeyedTestCommand.class));
+        assertFalse(delegator.subscribe(new KeyedTestExecutor(), KeyedTestCommand.class));
+
+        try {
+            //both executors must be executing at the same time for the command to complete
+            delegator.publish(new KeyedTestCommand("a", 0, new CountDownLatch(2)));
+            assertEquals(Collections.singletonList("a0"), first.executed);
+            assertEquals(Collections.singletonList("a0"), second.executed);
+            delegator.undo();
+            assertEquals(Collections.singletonList("a0"), first.unexecuted);
+            assertEquals(Collections.singletonList("a0"), second.unexecuted);
+
+            //a failing executor reverts the others
+            FailingCommandRecorder recorder = new FailingCommandRecorder();
+            delegator.subscribeMulticast(recorder, FailingCommand.class);
+            delegator.subscribeMulticast(new FailingTestExecutor(), FailingCommand.class);
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> delegator.publish(new FailingCommand(), false));
+            assertEquals(IllegalStateException.class, failure.getCause().getClass());
+            assertEquals(1, recorder.executedCount);
+            assertEquals(1, recorder.unexecutedCount);
+            assertEquals("a0", delegator.getRedoName());
+
+            assertTrue(delegator.unsubscribe(first));
+            delegator.redo();
+            assertEquals(Collections.singletonList("a0"), first.executed);
+            assertEquals(Arrays.asList("a0", "a0"), second.executed);
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void historySpill() {
+        CommandDelegator delegator = new CommandDelegator();
+        List<String> unexecuted = new ArrayList<>();
+        delegator.subscribe(new UndoableExecutor<UndoableCommand>() {
+            @Override
+            public void execute(UndoableCommand command) {
+                //NOOP
+            }
+
+            @Override
+            public void unexecute(UndoableCommand command) {
+                unexecuted.add(command.getName());
+            }
+        }, UndoableCommand.class);
+
+        try {
+            Path directory = Files.createTempDirectory("spill");
+            delegator.setHistorySpill(directory, 4);
+            List<String> names = new ArrayList<>();
+            Command first = new NamedCommand("C0");
+            delegator.publish(first);
+            names.add("C0");
+            for (int i = 1; i < 100; i++) {
+                delegator.publish(new NamedCommand("C" + i));
+                names.add(0, "C" + i);
+            }
+            assertEquals(names, delegator.getUndoNames(Integer.MAX_VALUE));
+
+            //spilled commands are read back as copies when undo reaches them
+            delegator.undo(100);
+            assertEquals(names, unexecuted);
+            Command undone = delegator.getLatestExecutionRecord().get().getCommand();
+            assertEquals("C0", undone.getName());
+            assertNotSame(first, undone);
+            assertFalse(delegator.canUndo());
+            delegator.redo(60);
+            assertEquals(names.subList(40, 100), delegator.getUndoNames(Integer.MAX_VALUE));
+            assertEquals("C60", delegator.getRedoName());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            delegator.exportSnapshot(out);
+            CommandDelegator restored = new CommandDelegator();
+            restored.importSnapshot(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(delegator.getUndoNames(Integer.MAX_VALUE), restored.getUndoNames(Integer.MAX_VALUE));
+            assertEquals(delegator.getRedoNames(Integer.MAX_VALUE), restored.getRedoNames(Integer.MAX_VALUE));
+
+            //stopping reads every command back and deletes the spill files
+            delegator.setHistorySpill(null, 0);
+            assertEquals(names.subList(40, 100), delegator.getUndoNames(Integer.MAX_VALUE));
+            delegator.undo(60);
+            assertEquals(names.subList(40, 100), unexecuted.subList(100, 160));
+            Files.delete(directory);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    void exportSnapshotDuringPublish() {
+        CommandDelegator delegator = new CommandDelegator();
+        delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+
+        try {
+            Path directory = Files.createTempDirectory("spill");
+            delegator.setHistorySpill(directory, 20);
+            for (int i = 0; i < 300; i++) {
+                delegator.publish(new NamedCommand("C" + i));
+            }
+            delegator.undo(150);
+            List<String> undoNames = delegator.getUndoNames(Integer.MAX_VALUE);
+            List<String> redoNames = delegator.getRedoNames(Integer.MAX_VALUE);
+
+            //publishing once the lock is released clears the redo history, releasing its spilled commands
+            AtomicInteger writes = new AtomicInteger();
+            ByteArrayOutputStream out = new ByteArrayOutputStream() {
+                @Override
+                public synchronized void write(byte[] b, int off, int len) {
+                    if (writes.getAndIncrement() == 0) {
+                        try {
+                            delegator.publish(new NamedCommand("Concurrent"));
+                        } catch (ExecutionException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                    super.write(b, off, len);
+                }
+            };
+            delegator.exportSnapshot(out);
+            assertTrue(writes.get() > 0);
+            assertFalse(delegator.canRedo());
+
+            CommandDelegator restored = new CommandDelegator();
+            restored.importSnapshot(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(undoNames, restored.getUndoNames(Integer.MAX_VALUE));
+            assertEquals(redoNames, restored.getRedoNames(Integer.MAX_VALUE));
+
+            delegator.setHistorySpill(null, 0);
+            Files.delete(directory);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    void exportSnapshotDuringMerge() {
+        CodecRegistry codecs = new CodecRegistry();
+        codecs.register(8, TypingCommand.class, new TypingCommandCodec());
+        CommandDelegator delegator = new CommandDelegator(new ExecutorRegistry(), codecs);
+        delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+
+        try {
+            for (int i = 0; i < 200; i++) {
+                delegator.publish(new NamedCommand("C" + i));
+            }
+            delegator.publish(new TypingCommand("a"));
+            long sequence = delegator.getLatestExecutionRecord().get().getSequence();
+
+            //merging once the lock is released changes the top command, which must not reach the snapshot
+            AtomicInteger writes = new AtomicInteger();
+            ByteArrayOutputStream out = new ByteArrayOutputStream() {
+                @Override
+                public synchronized void write(byte[] b, int off, int len) {
+                    if (writes.getAndIncrement() == 0) {
+                        try {
+                            delegator.publish(new TypingCommand("b"));
+                        } catch (ExecutionException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                    super.write(b, off, len);
+                }
+            };
+            delegator.exportSnapshot(out);
+            assertEquals("Typing: ab", delegator.getUndoName());
+
+            CommandDelegator restored = new CommandDelegator(new ExecutorRegistry(), codecs);
+            restored.importSnapshot(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals("Typing: a", restored.getUndoName());
+            assertEquals(sequence, restored.getLatestExecutionRecord().get().getSequence());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    void registerCodec() {
+        CodecRegistry codecs = new CodecRegistry();
+        NamedCommandCodec version1 = new NamedCommandCodec(1);
+        assertTrue(codecs.register(7, NamedCommand.class, version1));
+        CommandDelegator delegator = new CommandDelegator(new ExecutorRegistry(), codecs);
+        delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+        assertFalse(delegator.registerCodec(8, NamedCommand.class, new NamedCommandCodec(2)));
+
+        try {
+            delegator.publish(new NamedCommand("A"));
+            delegator.publish(new NamedCommand("B"));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            delegator.exportSnapshot(out);
+            assertEquals(2, version1.encoded);
+
+            //a newer version of the codec still reads commands written by the older version
+            NamedCommandCodec version2 = new NamedCommandCodec(2);
+            CommandDelegator restored = new CommandDelegator();
+            restored.registerCodec(7, NamedCommand.class, version2);
+            restored.importSnapshot(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(Arrays.asList("B", "A"), restored.getUndoNames(Integer.MAX_VALUE));
+            assertEquals(Arrays.asList(1, 1), version2.decodedVersions);
+
+            //a codec with an unknown id can not be read
+            assertThrows(IOException.class, () -> new CommandDelegator().importSnapshot(new ByteArrayInputStream(out.toByteArray())));
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    void replication() {
+        CommandDelegator leader = new CommandDelegator();
+        leader.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+        AtomicInteger mirrorExecutions = new AtomicInteger();
+        UndoableExecutor<UndoableCommand> mirrorExecutor = new UndoableExecutor<UndoableCommand>() {
+            @Override
+            public void execute(UndoableCommand command) {
+                mirrorExecutions.incrementAndGet();
+            }
+
+            @Override
+            public void unexecute(UndoableCommand command) {
+                mirrorExecutions.incrementAndGet();
+            }
+        };
+
+        try {
+            leader.publish(new NamedCommand("A"));
+
+            //the state before attaching is sent as a snapshot, then every change as it happens
+            ReplicationFollower inProcess = new ReplicationFollower(new CommandDelegator());
+            inProcess.getMirror().subscribe(mirrorExecutor, UndoableCommand.class);
+            ReplicationStream stream = new ReplicationStream(ReplicationTransport.inProcess(inProcess));
+            leader.attachReplication(stream);
+            leader.publish(new NamedCommand("B"));
+            leader.publish(new NamedCommand("C"));
+            leader.undo();
+            leader.publish(new NamedCommand("D"), false);
+            stream.flush();
+            assertEquals(leader.getUndoNames(Integer.MAX_VALUE), inProcess.getMirror().getUndoNames(Integer.MAX_VALUE));
+            assertEquals(Collections.singletonList("C"), inProcess.getMirror().getRedoNames(Integer.MAX_VALUE));
+            assertEquals(leader.getLatestExecutionRecord().get().getSequence(), inProcess.getLatestSequence());
+            assertSame(stream, leader.detachReplication());
+            stream.close();
+
+            ReplicationFollower overSocket = new ReplicationFollower(new CommandDelegator());
+            overSocket.getMirror().subscribe(mirrorExecutor, UndoableCommand.class);
+            try (SocketReplicationReceiver receiver = new SocketReplicationReceiver(overSocket);
+                 ReplicationStream socketStream = new ReplicationStream(new SocketReplicationTransport(receiver.getLocalAddress()))) {
+                //the leader is trusted, and its commands have no codec
+                receiver.setSerializationAllowed(true);
+                leader.attachReplication(socketStream);
+                for (int i = 0; i < 50; i++) {
+                    leader.publish(new NamedCommand("E" + i));
+                }
+                leader.undo(10);
+                assertTrue(overSocket.awaitSequence(leader.getLatestExecutionRecord().get().getSequence(), 10, TimeUnit.SECONDS));
+                leader.detachReplication();
+            }
+            assertEquals(leader.getUndoNames(Integer.MAX_VALUE), overSocket.getMirror().getUndoNames(Integer.MAX_VALUE));
+            assertEquals(leader.getRedoNames(Integer.MAX_VALUE), overSocket.getMirror().getRedoNames(Integer.MAX_VALUE));
+            assertEquals(leader.getExecutionRecords().size(), overSocket.getMirror().getExecutionRecords().size());
+            assertEquals(0, mirrorExecutions.get());
+
+            //a mirror takes over with the history intact
+            inProcess.getMirror().undo();
+            assertEquals(1, mirrorExecutions.get());
+            assertEquals("A", inProcess.getMirror().getUndoName());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    void socketReceiverRefusesUntrustedInput() {
+        ReplicationFollower follower = new ReplicationFollower(new CommandDelegator());
+        assertThrows(IllegalArgumentException.class, () -> new SocketReplicationReceiver(follower, new InetSocketAddress(0)));
+
+        CommandDelegator leader = new CommandDelegator();
+        leader.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+        try (SocketReplicationReceiver receiver = new SocketReplicationReceiver(follower)) {
+            receiver.setMaxMessageLength(1024);
+            try (Socket socket = new Socket()) {
+                socket.connect(receiver.getLocalAddress());
+                new DataOutputStream(socket.getOutputStream()).writeInt(Integer.MAX_VALUE);
+                IOException failure = awaitFailure(receiver, null);
+                assertTrue(failure.getMessage().startsWith("Invalid message length"), failure.getMessage());
+            }
+
+            //a command without a codec would be read using Java serialization
+            leader.publish(new NamedCommand("A"));
+            IOException previous = receiver.getFailure();
+            try (ReplicationStream stream = new ReplicationStream(new SocketReplicationTransport(receiver.getLocalAddress()))) {
+                leader.attachReplication(stream);
+                IOException failure = awaitFailure(receiver, previous);
+                assertTrue(failure.getMessage().contains("Java serialization is not allowed"), failure.getMessage());
+                leader.detachReplication();
+            }
+            assertFalse(follower.getMirror().canUndo());
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    private static IOException awaitFailure(SocketReplicationReceiver receiver, IOException previous) throws InterruptedException {
+        for (int i = 0; i < 1000; i++) {
+            IOException failure = receiver.getFailure();
+            if (failure != null && failure != previous) {
+                return failure;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("The receiver did not fail");
+    }
+
+    @Test
+    void replicateMergeAfterAttach() {
+        CodecRegistry codecs = new CodecRegistry();
+        codecs.register(8, TypingCommand.class, new TypingCommandCodec());
+        CommandDelegator leader = new CommandDelegator(new ExecutorRegistry(), codecs);
+        leader.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+        ReplicationFollower follower = new ReplicationFollower(new CommandDelegator(new ExecutorRegistry(), codecs));
+        //messages are only sent once the test runs them, after the merge
+        Deque<Runnable> shipments = new ArrayDeque<>();
+
+        try {
+            leader.publish(new TypingCommand("a"));
+            ReplicationStream stream = new ReplicationStream(ReplicationTransport.inProcess(follower), shipments::add);
+            leader.attachReplication(stream);
+            leader.publish(new TypingCommand("b"));
+            while (!shipments.isEmpty()) {
+                shipments.poll().run();
+            }
+            stream.flush();
+            assertEquals(Collections.singletonList("Typing: ab"), leader.getUndoNames(Integer.MAX_VALUE));
+            assertEquals(leader.getUndoNames(Integer.MAX_VALUE), follower.getMirror().getUndoNames(Integer.MAX_VALUE));
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    @Test
+    void tryPublish() {
+        final CommandDelegator delegator = new CommandDelegator();
+        assertSame(ExecutionResult.Status.NOTHING_TO_UNDO, delegator.tryUndo().getStatus());
+        assertSame(ExecutionResult.Status.NOTHING_TO_REDO, delegator.tryRedo().getStatus());
+
+        final UndoCommand missing = new UndoCommand();
+        final ExecutionResult noExecutor = delegator.tryPublish(missing);
+        assertSame(ExecutionResult.Status.NO_EXECUTOR, noExecutor.getStatus());
+        assertSame(missing, noExecutor.getCommand());
+        assertThrows(NoSuchExecutorException.class, noExecutor::throwIfFailed);
+
+        assertTrue(delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class));
+        assertTrue(delegator.tryPublish(new UndoCommand()).isSuccess());
+        assertTrue(delegator.tryUndo().isSuccess());
+        assertTrue(delegator.tryRedo().isSuccess());
+
+        final CommandDelegator failing = new CommandDelegator();
+        assertTrue(failing.subscribe(new FailingTestExecutor(), FailingCommand.class));
+        final FailingCommand command = new FailingCommand();
+        final ExecutionResult failed = failing.tryPublish(command);
+        assertSame(ExecutionResult.Status.FAILED, failed.getStatus());
+        assertSame(command, failed.getCommand());
+        assertTrue(failed.getCause() instanceof IllegalStateException);
+        assertFalse(failing.getLatestExecutionRecord().isPresent());
+
+        failing.setCaptureStackTraces(false);
+        final ExecutionException thrown = assertThrows(ExecutionException.class, () -> failing.publish(command));
+        assertEquals(0, thrown.getStackTrace().length);
+        assertSame(IllegalStateException.class, thrown.getCause().getClass());
+        final NoSuchExecutorException unsubscribed = assertThrows(NoSuchExecutorException.class, () -> failing.publish(missing));
+        assertEquals(0, unsubscribed.getStackTrace().length);
+        assertTrue(unsubscribed.getMessage().contains(missing.getName()));
+        assertThrows(NoSuchElementException.class, failing::undo);
+    }
+}
@@ -0,0 +1,273 @@
+package com.logdyn;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static com.logdyn.resources.CommandDelegatorTestUtility.*;
+
+class ExecutionJournalTest {
+
+    @Test
+    void replay() throws Exception {
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            CommandDelegator delegator = new CommandDelegator();
+            delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+            try (ExecutionJournal journal = new ExecutionJournal(path, 2)) {
+                delegator.attachJournal(journal);
+                delegator.publish(new NamedCommand("A"));
+                delegator.publish(new NamedCommand("B"));
+                delegator.publish(new NamedCommand("C"));
+                delegator.undo();
+                delegator.publish(new NamedCommand("D"), false);
+            }
+
+            CommandDelegator restored = new CommandDelegator();
+            restored.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+            try (ExecutionJournal journal = new ExecutionJournal(path)) {
+                restored.attachJournal(journal);
+                assertEquals(Arrays.asList("B", "A"), restored.getUndoNames(Integer.MAX_VALUE));
+                assertEquals(Collections.singletonList("C"), restored.getRedoNames(Integer.MAX_VALUE));
+                assertEquals(delegator.getExecutionRecords().size(), restored.getExecutionRecords().size());
+                assertEquals(delegator.getLatestExecutionRecord().get().getSequence(),
+                        restored.getLatestExecutionRecord().get().getSequence());
+
+                restored.redo();
+            }
+
+            //no executors are subscribed, replaying must not invoke any
+            CommandDelegator again = new CommandDelegator();
+            try (ExecutionJournal journal = new ExecutionJournal(path)) {
+                again.attachJournal(journal);
+                assertEquals(Arrays.asList("C", "B", "A"), again.getUndoNames(Integer.MAX_VALUE));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void replayBatch() throws Exception {
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            CommandDelegator delegator = new CommandDelegator();
+            delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+            try (ExecutionJournal journal = new ExecutionJournal(path)) {
+                delegator.attachJournal(journal);
+                delegator.publishAll("Batch", Arrays.asList(new NamedCommand("A"), new NamedCommand("B")));
+                delegator.publishAll(Arrays.asList(new NamedCommand("C"), new NamedCommand("D")));
+                delegator.undo();
+            }
+
+            CommandDelegator restored = new CommandDelegator();
+            try (ExecutionJournal journal = new ExecutionJournal(path)) {
+                restored.attachJournal(journal);
+                assertEquals(Collections.singletonList("Batch"), restored.getUndoNames(Integer.MAX_VALUE));
+                assertEquals(Collections.singletonList("2 commands"), restored.getRedoNames(Integer.MAX_VALUE));
+                CompositeCommand batch = (CompositeCommand) restored.getExecutionRecords().stream()
+                        .filter(record -> "Batch".equals(record.getCommand().getName())).findFirst().get().getCommand();
+                assertEquals(Arrays.asList("A", "B"), batch.getCommands().stream().map(Command::getName).collect(Collectors.toList()));
+                assertTrue(batch.isUndoable());
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void discardPartialEntry() throws Exception {
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            CommandDelegator delegator = new CommandDelegator();
+            delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+            try (ExecutionJournal journal = new ExecutionJournal(path)) {
+                delegator.attachJournal(journal);
+                delegator.publish(new NamedCommand("A"));
+            }
+            long size = Files.size(path);
+            Files.write(path, new byte[]{0, 0, 1, 0, 42}, StandardOpenOption.APPEND);
+
+            CommandDelegator restored = new CommandDelegator();
+            try (ExecutionJournal journal = new ExecutionJournal(path)) {
+                restored.attachJournal(journal);
+                assertEquals(Collections.singletonList("A"), restored.getUndoNames(Integer.MAX_VALUE));
+            }
+            assertEquals(size, Files.size(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void revertUnencodable() throws Exception {
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            CommandDelegator delegator = new CommandDelegator();
+            delegator.subscribe(new UndoableExecutor<NamedCommand>() {
+                @Override
+                public void execute(NamedCommand command) {
+                    //NOOP
+                }
+
+                @Override
+                public void unexecute(NamedCommand command) {
+                    //NOOP
+                }
+            }, NamedCommand.class);
+            UndoTestExecutor executor = new UndoTestExecutor();
+            delegator.subscribe(executor, UndoCommand.class);
+            try (ExecutionJournal journal = new ExecutionJournal(path)) {
+                delegator.attachJournal(journal);
+                delegator.publish(new NamedCommand("A"));
+                ExecutionException thrown = assertThrows(ExecutionException.class, () -> delegator.publish(new UndoCommand()));
+                assertTrue(thrown.getCause() instanceof IOException);
+                //the command is encoded once it has executed, so it is unexecuted rather than recorded
+                assertTrue(executor.executed);
+                assertTrue(executor.unexecuted);
+                assertEquals(Collections.singletonList("A"), delegator.getUndoNames(Integer.MAX_VALUE));
+                assertNull(journal.getFailure());
+                delegator.publish(new NamedCommand("B"));
+            }
+
+            CommandDelegator restored = new CommandDelegator();
+            try (ExecutionJournal journal = new ExecutionJournal(path)) {
+                restored.attachJournal(journal);
+                assertEquals(Arrays.asList("B", "A"), restored.getUndoNames(Integer.MAX_VALUE));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void recordStateStoredByExecutor() throws Exception {
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            CommandDelegator delegator = new CommandDelegator();
+            delegator.subscribe(new StatefulExecutor(), StatefulCommand.class);
+            try (ExecutionJournal journal = new ExecutionJournal(path)) {
+                delegator.attachJournal(journal);
+                delegator.publish(new StatefulCommand());
+                delegator.publishParallel(new StatefulCommand()).get(10, TimeUnit.SECONDS);
+            }
+
+            CommandDelegator restored = new CommandDelegator();
+            StatefulExecutor executor = new StatefulExecutor();
+            restored.subscribe(executor, StatefulCommand.class);
+            try (ExecutionJournal journal = new ExecutionJournal(path)) {
+                restored.attachJournal(journal);
+                restored.undo(2);
+            }
+            assertEquals(Arrays.asList("state", "state"), executor.restored);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void failFastOnceClosed() throws Exception {
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            CommandDelegator delegator = new CommandDelegator();
+            delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+            try (ExecutionJournal journal = new ExecutionJournal(path)) {
+                delegator.attachJournal(journal);
+                delegator.publish(new NamedCommand("A"));
+            }
+            assertThrows(ExecutionException.class, () -> delegator.publish(new NamedCommand("B")));
+            assertThrows(ExecutionException.class, delegator::undo);
+            assertEquals(Collections.singletonList("A"), delegator.getUndoNames(Integer.MAX_VALUE));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void tryWithFailingJournal() throws Exception {
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            CommandDelegator delegator = new CommandDelegator();
+            delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+            ExecutionJournal journal = new ExecutionJournal(path);
+            delegator.attachJournal(journal);
+            delegator.publish(new NamedCommand("A"));
+            delegator.publish(new NamedCommand("B"));
+            delegator.undo();
+
+            UndoCommand unencodable = new UndoCommand();
+            ExecutionResult result = delegator.tryPublish(unencodable);
+            assertEquals(ExecutionResult.Status.FAILED, result.getStatus());
+            assertSame(unencodable, result.getCommand());
+            assertTrue(result.getCause() instanceof IOException);
+            assertEquals(Collections.singletonList("B"), delegator.getRedoNames(Integer.MAX_VALUE));
+
+            journal.close();
+            result = delegator.tryUndo();
+            assertEquals(ExecutionResult.Status.FAILED, result.getStatus());
+            assertEquals("A", result.getCommand().getName());
+            assertTrue(result.getCause() instanceof IOException);
+            result = delegator.tryRedo();
+            assertEquals(ExecutionResult.Status.FAILED, result.getStatus());
+            assertEquals("B", result.getCommand().getName());
+            assertTrue(result.getCause() instanceof IOException);
+            assertEquals(ExecutionResult.Status.FAILED, delegator.tryPublish(new NamedCommand("C")).getStatus());
+            assertEquals(Collections.singletonList("A"), delegator.getUndoNames(Integer.MAX_VALUE));
+            assertEquals(Collections.singletonList("B"), delegator.getRedoNames(Integer.MAX_VALUE));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void failedReplayLeavesDelegatorUnchanged() throws Exception {
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            CommandDelegator delegator = new CommandDelegator();
+            delegator.subscribe(new GenericUndoableExecutor(), UndoableCommand.class);
+            try (ExecutionJournal journal = new ExecutionJournal(path)) {
+                delegator.attachJournal(journal);
+                delegator.publish(new NamedCommand("A"));
+                delegator.publish(new NamedCommand("B"));
+                delegator.undo();
+                delegator.undo();
+            }
+
+            //the policy cannot change under an attached journal, it would be replayed under the policy it is attached with
+            assertThrows(IllegalStateException.class, () -> delegator.setHistoryPolicy(HistoryPolicy.maxDepth(1)));
+            delegator.detachJournal();
+            delegator.setHistoryPolicy(HistoryPolicy.maxDepth(1));
+
+            //A is evicted when B is replayed, so the second undo cannot be replayed
+            CommandDelegator restored = new CommandDelegator();
+            restored.setHistoryPolicy(HistoryPolicy.maxDepth(1));
+            try (ExecutionJournal journal = new ExecutionJournal(path)) {
+                assertThrows(IOException.class, () -> restored.attachJournal(journal));
+            }
+            assertTrue(restored.getUndoNames(Integer.MAX_VALUE).isEmpty());
+            assertTrue(restored.getRedoNames(Integer.MAX_VALUE).isEmpty());
+            assertTrue(restored.getExecutionRecords().isEmpty());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void rejectOtherFiles() throws IOException {
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            Files.write(path, new byte[]{1, 2, 3, 4, 5});
+            assertThrows(IOException.class, () -> new ExecutionJournal(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
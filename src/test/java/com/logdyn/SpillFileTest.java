@@ -0,0 +1,41 @@
+package com.logdyn;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static com.logdyn.resources.CommandDelegatorTestUtility.*;
+
+class SpillFileTest {
+
+    @Test
+    void reclaimEvictedSpace() throws Exception {
+        Path directory = Files.createTempDirectory("spill");
+        try {
+            CodecRegistry codecs = new CodecRegistry();
+            SpillFile undo = new SpillFile(directory, "undo", codecs);
+            SpillFile redo = new SpillFile(directory, "redo", codecs);
+            CommandHistory history = new CommandHistory();
+            history.setPolicy(HistoryPolicy.maxDepth(50));
+            history.setSpill(undo, redo, 4);
+            int capacity = undo.capacity();
+
+            //the oldest spilled commands are discarded far more often than the file could hold them
+            for (int i = 0; i < 200_000; i++) {
+                history.push(new NamedCommand("Command: " + i));
+            }
+            assertEquals(capacity, undo.capacity());
+            assertEquals(50, history.snapshot().getUndoCount());
+
+            for (int i = 199_999; i >= 199_950; i--) {
+                assertEquals("Command: " + i, history.undo().getName());
+            }
+            assertFalse(history.snapshot().canUndo());
+            history.setSpill(null, null, 0);
+        } finally {
+            Files.delete(directory);
+        }
+    }
+}
@@ -1,10 +1,26 @@
 package com.logdyn.resources;
 
 import com.logdyn.Command;
+import com.logdyn.CommandCodec;
 import com.logdyn.Executor;
+import com.logdyn.KeyedCommand;
+import com.logdyn.MergeableCommand;
 import com.logdyn.UndoableCommand;
 import com.logdyn.UndoableExecutor;
 
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class CommandDelegatorTestUtility {
 
     public static class SubscribeCommand implements Command {
@@ -47,7 +63,38 @@ public class CommandDelegatorTestUtility {
         }
     }
 
-    public static class NamedCommand implements UndoableCommand {
+    public static class FailingCommand implements UndoableCommand {
+
+        @Override
+        public String getName() {
+            return this.getClass().getSimpleName();
+        }
+    }
+
+    public static class TypingCommand implements MergeableCommand {
+
+        public final StringBuilder text;
+
+        public TypingCommand(String text) {
+            this.text = new StringBuilder(text);
+        }
+
+        @Override
+        public String getName() {
+            return "Typing: " + text;
+        }
+
+        @Override
+        public boolean merge(Command next) {
+            if (next instanceof TypingCommand) {
+                text.append(((TypingCommand) next).text);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public static class NamedCommand implements UndoableCommand, Serializable {
 
         private String name;
 
@@ -61,6 +108,62 @@ public class CommandDelegatorTestUtility {
         }
     }
 
+    public static class KeyedTestCommand implements KeyedCommand, UndoableCommand {
+
+        public final String key;
+        public final int index;
+        public final CountDownLatch rendezvous;
+
+        public KeyedTestCommand(String key, int index, CountDownLatch rendezvous) {
+            this.key = key;
+            this.index = index;
+            this.rendezvous = rendezvous;
+        }
+
+        @Override
+        public String getName() {
+            return key + index;
+        }
+
+        @Override
+        public Collection<?> getConflictKeys() {
+            return Collections.singleton(key);
+        }
+    }
+
+    public static class KeyedTestExecutor implements UndoableExecutor<KeyedTestCommand> {
+
+        public final List<String> executed = new CopyOnWriteArrayList<>();
+        public final List<String> unexecuted = new CopyOnWriteArrayList<>();
+        public volatile boolean overlapped = false;
+        private final Map<String, AtomicInteger> active = new ConcurrentHashMap<>();
+
+        @Override
+        public void execute(KeyedTestCommand command) throws Exception {
+            AtomicInteger running = active.computeIfAbsent(command.key, k -> new AtomicInteger());
+            if (running.incrementAndGet() > 1) {
+                overlapped = true;
+            }
+            try {
+                if (command.rendezvous != null) {
+                    //only returns once every command sharing the latch is executing at the same time
+                    command.rendezvous.countDown();
+                    if (!command.rendezvous.await(10, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("Commands were not executed in parallel");
+                    }
+                }
+                executed.add(command.getName());
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void unexecute(KeyedTestCommand command) throws Exception {
+            unexecuted.add(command.getName());
+        }
+    }
+
     public static class GenericUndoableExecutor implements  UndoableExecutor<UndoableCommand> {
 
         @Override
@@ -179,4 +282,119 @@ public class CommandDelegatorTestUtility {
             reexecutedCount++;
         }
     }
+
+    public static class FailingTestExecutor implements UndoableExecutor<FailingCommand> {
+
+        @Override
+        public void execute(FailingCommand command) throws Exception {
+            throw new IllegalStateException("Execution failed");
+        }
+
+        @Override
+        public void unexecute(FailingCommand command) throws Exception {
+            throw new IllegalStateException("Unexecution failed");
+        }
+    }
+
+    public static class FailingCommandRecorder implements UndoableExecutor<FailingCommand> {
+
+        public int executedCount = 0;
+        public int unexecutedCount = 0;
+
+        @Override
+        public void execute(FailingCommand command) throws Exception {
+            executedCount++;
+        }
+
+        @Override
+        public void unexecute(FailingCommand command) throws Exception {
+            unexecutedCount++;
+        }
+    }
+
+    /**
+     * Version 1 writes the name to the end of the buffer, version 2 prefixes it with its length and follows it with a flag
+     */
+    public static class NamedCommandCodec implements CommandCodec<NamedCommand> {
+
+        private final int version;
+        public int encoded = 0;
+        public final List<Integer> decodedVersions = new CopyOnWriteArrayList<>();
+
+        public NamedCommandCodec(int version) {
+            this.version = version;
+        }
+
+        @Override
+        public int getVersion() {
+            return version;
+        }
+
+        @Override
+        public void encode(NamedCommand command, ByteBuffer buffer) {
+            byte[] name = command.getName().getBytes(StandardCharsets.UTF_8);
+            if (version >= 2) {
+                buffer.putInt(name.length);
+            }
+            buffer.put(name);
+            if (version >= 2) {
+                buffer.put((byte) 1);
+            }
+            encoded++;
+        }
+
+        @Override
+        public NamedCommand decode(ByteBuffer buffer, int version) {
+            decodedVersions.add(version);
+            byte[] name = new byte[version >= 2 ? buffer.getInt() : buffer.remaining()];
+            buffer.get(name);
+            return new NamedCommand(new String(name, StandardCharsets.UTF_8));
+        }
+    }
+
+    public static class TypingCommandCodec implements CommandCodec<TypingCommand> {
+
+        @Override
+        public int getVersion() {
+            return 1;
+        }
+
+        @Override
+        public void encode(TypingCommand command, ByteBuffer buffer) {
+            buffer.put(command.text.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public TypingCommand decode(ByteBuffer buffer, int version) {
+            byte[] text = new byte[buffer.remaining()];
+            buffer.get(text);
+            return new TypingCommand(new String(text, StandardCharsets.UTF_8));
+        }
+    }
+
+    public static class StatefulCommand implements UndoableCommand, Serializable {
+
+        //set by the executor, as an executor storing what it needs to undo the command
+        public String previous;
+
+        @Override
+        public String getName() {
+            return "Stateful";
+        }
+    }
+
+    public static class StatefulExecutor implements UndoableExecutor<StatefulCommand> {
+
+        public final List<String> restored = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void execute(StatefulCommand command) {
+            command.previous = "state";
+        }
+
+        @Override
+        public void unexecute(StatefulCommand command) {
+            restored.add(command.previous);
+        }
+    }
 }